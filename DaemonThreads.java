@@ -0,0 +1,40 @@
+// DaemonThreads.java
+
+/* A DaemonThreads factory makes the background threads used by the
+   thread pools (the chunk builders, scene builders, texture loaders,
+   and so on). They are daemon threads, so they don't stop the
+   application from exiting, and they are all given the same name,
+   so they can be picked out in a thread dump or a StartupTimeline.
+   Threads doing work which can wait, such as building distant chunks,
+   can be given a low priority, so they don't hold up the rendering.
+*/
+
+import java.util.concurrent.ThreadFactory;
+
+
+public class DaemonThreads implements ThreadFactory
+{
+  private String name;
+  private int priority;
+
+
+  public DaemonThreads(String name)
+  {  this(name, Thread.NORM_PRIORITY);  }
+
+
+  public DaemonThreads(String name, int priority)
+  {
+    this.name = name;
+    this.priority = priority;
+  }
+
+
+  public Thread newThread(Runnable r)
+  {
+    Thread t = new Thread(r, name);
+    t.setDaemon(true);
+    t.setPriority(priority);
+    return t;
+  }  // end of newThread()
+
+}  // end of DaemonThreads class
@@ -10,7 +10,25 @@
    value input from the command line (or a default value can
    be used).
 
-   The landscape is surrounded by dark blue walls.
+   An optional second argument is the world seed. Every random
+   choice (the mesh heights, where the trees go, how they grow)
+   is made from it, so the same seed rebuilds the same world.
+   If no seed is given then one is picked and printed.
+
+   Options can come before the other arguments:
+     --progressive: the first frame is shown with a coarse landscape,
+          which is refined, and the trees added, in the background;
+     --headless: no window is opened; instead the scene is drawn
+          offscreen along a fixed camera path, and the frame times
+          are reported (see HeadlessRenderer);
+     --metrics: the per-frame Metrics can be watched over JMX;
+     --metrics-log: the Metrics are also printed every few seconds;
+     --record <file>: the keys pressed are saved in file (see KeyRecorder);
+     --replay <file>: the keys saved in file are pressed again, in the
+          world they were recorded in (see KeyReplay).
+
+   The landscape has no edges; it is built in chunks
+   around the user as they walk.
 
    The user can 'walk' over the landscape using the
    similar left/right/front/back/turn/up/down moves
@@ -19,6 +37,7 @@
 
 import javax.swing.*;
 import java.awt.*;
+import java.io.IOException;
 
 public class FractalLand3D extends JFrame {
   private static final long serialVersionUID = 1L;
@@ -26,13 +45,26 @@ public class FractalLand3D extends JFrame {
   private static final double MIN_FLAT = 1.6; // rough
   private static final double MAX_FLAT = 2.5; // very flat
 
-  public FractalLand3D(String[] args) {
-    super("3D Fractal Landscape");
+  private static double flatness = DEF_FLAT;
+  private static long seed = System.nanoTime();
+  private static boolean progressive = false;   // show a coarse world first
+  private static boolean headless = false;      // draw offscreen, and time the frames
+  private static String recordFnm = null;       // save the keys pressed here
+  private static KeyReplay replay = null;       // the keys to press again
 
-    double flatness = processArgs(args);
-    System.out.println("Flatness: " + flatness);
+  public FractalLand3D() {
+    super("3D Fractal Landscape");
 
-    WrapFractalLand3D w3d = new WrapFractalLand3D(flatness);
+    WrapFractalLand3D w3d = new WrapFractalLand3D(flatness, seed, progressive);
+    if (recordFnm != null) {
+      try {
+        w3d.recordKeys( new KeyRecorder(recordFnm, flatness, seed) );
+      }
+      catch (IOException e)
+      {  System.out.println("Could not record keys in " + recordFnm + ": " + e);  }
+    }
+    if (replay != null)
+      w3d.replayKeys(replay);
 
     Container c = getContentPane();
     c.setLayout(new BorderLayout());
@@ -44,20 +76,65 @@ public class FractalLand3D extends JFrame {
     setVisible(true);
   } // end of FractalLand3D()
 
-  private double processArgs(String[] args)
-  // 0 or 1 argument is acceptable
+  private static void processArgs(String[] args)
+  // the options, then 0, 1 or 2 arguments are acceptable
   {
-    double flatness = DEF_FLAT;
-    if (args.length == 1)
-      flatness = getFlatness(args[0]);
-    else if (args.length > 1) {
-      System.out.println("Usage: java FractalLand3D [<Flatness>]");
+    boolean badOption = false;
+    boolean isReplay = false;
+    int first = 0;
+    for (; (first < args.length) && args[first].startsWith("--"); first++) {
+      if (args[first].equals("--progressive"))
+        progressive = true;
+      else if (args[first].equals("--headless"))
+        headless = true;
+      else if (args[first].equals("--metrics"))
+        Metrics.start(false);
+      else if (args[first].equals("--metrics-log"))
+        Metrics.start(true);
+      else if (args[first].equals("--record") && (first+1 < args.length))
+        recordFnm = args[++first];
+      else if (args[first].equals("--replay") && (first+1 < args.length)) {
+        replay = loadReplay(args[++first]);
+        isReplay = true;
+      }
+      else
+        badOption = true;
+    }
+    if ((recordFnm != null) && isReplay) {   // the replayed keys would be recorded
+      System.out.println("--record and --replay can't be used together");
+      badOption = true;
+    }
+    int numArgs = args.length - first;
+    if (badOption || (numArgs > 2)) {
+      System.out.println("Usage: java FractalLand3D [--progressive] [--headless] [--metrics | --metrics-log]" +
+                         " [--record <file> | --replay <file>] [<Flatness> [<Seed>]]");
       System.exit(0);
     }
-    return flatness;
+    if (numArgs >= 1)
+      flatness = getFlatness(args[first]);
+    if (numArgs == 2)
+      seed = getSeed(args[first+1]);
+    if (replay != null) {    // the recorded world
+      flatness = replay.getFlatness();
+      seed = replay.getSeed();
+    }
   } // end of processArgs()
 
-  private double getFlatness(String arg)
+
+  private static KeyReplay loadReplay(String fnm)
+  {
+    try {
+      KeyReplay kr = new KeyReplay(fnm);
+      System.out.println("Replaying " + kr.getNumKeys() + " keys from " + fnm);
+      return kr;
+    }
+    catch (IOException e) {
+      System.out.println("Could not load the keys in " + fnm + ": " + e);
+      return null;
+    }
+  }  // end of loadReplay()
+
+  private static double getFlatness(String arg)
   // flatness must be a double within the range MIN_FLAT to MAX_FLAT
   {
     double flatness;
@@ -74,9 +151,30 @@ public class FractalLand3D extends JFrame {
     return flatness;
   } // end of getFlatness()
 
+  private static long getSeed(String arg)
+  // the seed can be any long; keep the default if it can't be parsed
+  {
+    try {
+      return Long.parseLong(arg);
+    } catch (NumberFormatException ex) {
+      System.out.println("Incorrect format for Seed long");
+      return seed;
+    }
+  } // end of getSeed()
+
   // -----------------------------------------
 
   public static void main(String[] args) {
-    new FractalLand3D(args);
+    processArgs(args);
+    System.out.println("Flatness: " + flatness);
+    System.out.println("Seed: " + seed);
+
+    if (headless) {
+      if (progressive)
+        System.out.println("--progressive is ignored with --headless");
+      System.exit( HeadlessRenderer.run(flatness, seed) ? 0 : 1 );
+    }
+    else
+      new FractalLand3D();
   }
 } // end of FractalLand3D class
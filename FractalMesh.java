@@ -1 +1,678 @@
-// FractalMesh.java// Andrew Davison, April 2005, ad@fivedots.coe.psu.ac.th/*  Generates a fractal mesh for use as a landscape.  The mesh is centered at (0,0) on the (x,z) plane, and  extends WORLD_LEN/2 around that point.   The y coordinate represents the height.  The mesh is stored  in a 2D array, with z stored in the rows, x in the columns.  mesh[0][0] stores the back left most point of the mesh which  is negative z and x.  The number of mesh points is dictated by WORLD_LEN which is   2^x. The divideMesh() method is called x times so that the  resulting mesh contains cells of width/height of 1 umit.   The mesh is generated using an algorithm similar   to the one in:     "Fractal Terrain Generation -  Midpoint Displacement"     by Jason Shankel, section 4.18, pp.503-507     In 'Game Programming Gems', Mark DeLoura (ed.)     Charles River Media, 2000  ------  Top tip suggested by Tom Egan: replace Math.random() with  Random.nextDouble() in order to always generate the same random  landscape for a given flatness value. This requires a constant seed  for the Random object.  The necesary changes are commented out in the code, and explained  in Chapter 26.*/import java.io.*;import java.util.Random;import javax.vecmath.*;import java.text.DecimalFormat;public class FractalMesh{  private static final int WORLD_LEN = 64;  /* WORLD_LEN should be a power of 2 since it will be     halved repeatedly until a single mesh cell as a     width of 1 unit. */  // a height range of 10 units  private final static double MIN_HEIGHT = 2.0;  private final static double MAX_HEIGHT = 4.0;  private Point3d mesh[][];    // stores the mesh's (x,y,z) points  private DecimalFormat df;    // for output of mesh  private double flatness;  /* Amount used to reduce dHeight on each recursive     call to divideMesh(). A larger value makes     landscape smoother; smaller is more chaotic  */  private Random rnd;   // for generating random numbers   public FractalMesh(double flat)  {    flatness = flat;    mesh = new Point3d[WORLD_LEN+1][WORLD_LEN+1];    df = new DecimalFormat("0.##");  // 2 dp    rnd = new Random(1L);       // a fixed seed    makeMesh();  } // end of FractalMesh()  private void makeMesh()  /* Initialise the 4 corners of the mesh with random heights     within the MIN and MAX range. Then start recursively     generating midoints by calling divideMesh(). */  {    System.out.println("Building the landscape...please wait");    mesh[0][0] =    // back left      new Point3d( -WORLD_LEN/2, randomHeight(), -WORLD_LEN/2 );    mesh[0][WORLD_LEN] =    // back right      new Point3d( WORLD_LEN/2, randomHeight(), -WORLD_LEN/2 );    mesh[WORLD_LEN][0] =    // front left      new Point3d( -WORLD_LEN/2, randomHeight(), WORLD_LEN/2 );    mesh[WORLD_LEN][WORLD_LEN] =    // front right      new Point3d( WORLD_LEN/2, randomHeight(), WORLD_LEN/2 );    divideMesh( (MAX_HEIGHT-MIN_HEIGHT)/flatness, WORLD_LEN/2);  } // end of makeMesh()  private double randomHeight()  // between MIN_HEIGHT and MAX_HEIGHT  {  return 2.0;       // return (rnd.nextDouble()*(MAX_HEIGHT-MIN_HEIGHT) + MIN_HEIGHT);              // to fix the randomness  }  private void divideMesh(double dHeight, int stepSize)  /* At each step, we must perform the diamond step for     the entire mesh before doing the square step. */  {    int xPt, zPt;    if (stepSize >= 1) {   // stop recursing once stepSize is < 1      // diamond step for all mid points at this level      zPt = stepSize;      while (zPt < WORLD_LEN+1) {        xPt = stepSize;        while (xPt < WORLD_LEN+1) {           mesh[zPt][xPt] = getDiamond(zPt, xPt, dHeight, stepSize);           xPt += (stepSize*2);        }        zPt += (stepSize*2);      }      // square step for all points surrounding diamonds      zPt = stepSize;      while (zPt < WORLD_LEN+1) {        mesh[zPt][0] = getSquare(zPt, 0, dHeight, stepSize);  // left column        xPt = stepSize;        while (xPt < WORLD_LEN+1) {           getSquares(zPt, xPt, dHeight, stepSize);  // back & right cells           xPt += (stepSize*2);        }        zPt += (stepSize*2);      }      xPt = stepSize;      while (xPt < WORLD_LEN+1) {        mesh[WORLD_LEN][xPt] =           getSquare(WORLD_LEN, xPt, dHeight, stepSize);  // front row        xPt += (stepSize*2);      }      divideMesh(dHeight/flatness, stepSize/2);    }  }  // end of divideMesh()  private void getSquares(int z, int x, double dHeight, int stepSize)  {    mesh[cCoord(z-stepSize)][x] =    // back           getSquare(cCoord(z-stepSize), x, dHeight, stepSize);    mesh[z][cCoord(x+stepSize)] =    // right           getSquare(z, cCoord(x+stepSize), dHeight, stepSize);  } // end of getSquares()    private Point3d getDiamond(int z, int x, double dHeight, int stepSize)  {    // System.out.println("getDiamond: " + z + ", " + x + " /" + stepSize);    Point3d leftBack = mesh[cCoord(z-stepSize)][cCoord(x-stepSize)];    Point3d rightBack = mesh[cCoord(z-stepSize)][cCoord(x+stepSize)];    Point3d leftFront = mesh[cCoord(z+stepSize)][cCoord(x-stepSize)];    Point3d rightFront = mesh[cCoord(z+stepSize)][cCoord(x+stepSize)];    double height =         calcHeight(leftBack, rightBack, leftFront, rightFront, dHeight);    double xWorld = x - (WORLD_LEN/2);    double zWorld = z - (WORLD_LEN/2);    return new Point3d(xWorld, height, zWorld);  } // end of getDiamond()  private Point3d getSquare(int z, int x, double dHeight, int stepSize)  {    // System.out.println("getSquare: " + z + ", " + x + " /" + stepSize);    Point3d back = mesh[cCoord(z-stepSize)][x];    Point3d front = mesh[cCoord(z+stepSize)][x];    Point3d left = mesh[z][cCoord(x-stepSize)];    Point3d right = mesh[z][cCoord(x+stepSize)];    double height = calcHeight(back, front, left, right, dHeight);    double xWorld = x - (WORLD_LEN/2);    double zWorld = z - (WORLD_LEN/2);    return new Point3d(xWorld, height, zWorld);  } // end of getSquare()    private int cCoord(int coordIdx)  /* If the coord index is less then o, greater then WORLD_LEN     then use the coord on the opposite edge of the mesh.  */  {    if (coordIdx < 0)      return WORLD_LEN + coordIdx;    else if (coordIdx > WORLD_LEN)      return coordIdx - WORLD_LEN;    else      return coordIdx;  } // end of cCoord()  private double calcHeight(Point3d back, Point3d front,                       Point3d left, Point3d right, double dHeight)  /* If the calculated height is < MIN_HEIGHT, set it to MIN_HEIGHT.     If the calculated height is > MAX_HEIGHT, then take modulo     MAX_HEIGHT.  */  {    double height = (back.y + front.y + left.y + right.y)/4.0f +											   randomRange(dHeight);    if (height < MIN_HEIGHT)      height = MIN_HEIGHT;    else if (height > MAX_HEIGHT)      height = height%MAX_HEIGHT;    return height;  }  // end of calcHeight()  private double randomRange(double h)  // between -h and h  {  return ((Math.random() * 2 * h) - h);       // return ((rnd.nextDouble() * 2 * h) - h);   // to fix the randomness  }  public Point3d[] getVertices()  /* Return the mesh as an array of vertices. Each group of 4 points     will be used to create a TexturedPlane object.      We order the points so a plane is specified in anti-clockwise order,     which will be used when a texture is placed on it.  */  { int numVerts = WORLD_LEN*WORLD_LEN*4;    Point3d vertices[] = new Point3d[numVerts];        int vPos = 0;    for(int z=0; z<WORLD_LEN; z++) {      for(int x=0; x<WORLD_LEN; x++) {        vertices[vPos++] = mesh[z+1][x];     // anti-clockwise creation        vertices[vPos++] = mesh[z+1][x+1];   // from bottom-left        vertices[vPos++] = mesh[z][x+1];        vertices[vPos++] = mesh[z][x];      }    }    return vertices;  }  // end of getVertices  // ---------------------- debugging ------------------  public void printMesh(int axis)  // axis values: x=0, y=1, z=2  {    File f = new File("mesh.txt");    PrintWriter pw = null;    try {      pw = new PrintWriter(new FileWriter(f),true);      if (axis == 0)        pw.println("---------- World X Coords ------------");      else if (axis == 1)        pw.println("---------- World Y Coords ------------");      else         pw.println("---------- World Z Coords ------------");      for(int z=0; z<WORLD_LEN+1; z++) {        for(int x=0; x<WORLD_LEN+1; x++)          if (axis == 0)            pw.print( df.format(mesh[z][x].x) + " ");          else if (axis == 1)            pw.print( df.format(mesh[z][x].y) + " ");          else           pw.print( df.format(mesh[z][x].z) + " ");        pw.println();      }      pw.println("--------------------------------------");      System.out.println("Mesh written to mesh.txt");    }    catch(Exception e)    {  System.out.println("Could not write mesh to mesh.txt");  }  }  // end of printMesh()}  // end of FractalMesh class
\ No newline at end of file
+// FractalMesh.java
+// Andrew Davison, April 2005, ad@fivedots.coe.psu.ac.th
+
+/*
+  Generates a fractal mesh for use as a landscape.
+
+  The mesh is centered at (0,0) on the (x,z) plane, and
+  extends worldLen/2 around that point.
+  The y coordinate represents the height.
+
+  The mesh is stored as a heightfield: a single row-major float
+  array holding one height per grid vertex, with z stored in the
+  rows, x in the columns. heights[0] stores the back left most
+  point of the mesh which is negative z and x. A vertex's (x,z)
+  world position is implied by its index, so no Point3d objects
+  are needed while the landscape is generated.
+
+  The number of mesh points is dictated by worldLen which is
+  2^x. The divideMesh() method is called x times so that the
+  resulting mesh contains cells of width/height of 1 umit.
+
+  The mesh is generated using an algorithm similar
+  to the one in:
+     "Fractal Terrain Generation -  Midpoint Displacement"
+     by Jason Shankel, section 4.18, pp.503-507
+     In 'Game Programming Gems', Mark DeLoura (ed.)
+     Charles River Media, 2000
+
+  Each pass of divideMesh() (all the diamonds at one step size, then
+  all the squares) only reads points made by earlier passes, so the
+  rows of a pass can be calculated in any order. Large meshes split
+  each pass into bands of rows which are run on the fork/join common
+  pool.
+
+  The random displacement for a point is a WorldRandom hash of the
+  world seed and the point's index (see randomRange()), not the next
+  value from a shared generator. So the landscape depends only on the
+  seed, and the parallel and serial versions produce exactly the same
+  heights.
+
+  A mesh can also be made as one square tile of an unbounded world
+  (see the tile constructor). Tile (tileX, tileZ) covers world x from
+  tileX*worldLen to (tileX+1)*worldLen, and similarly for z. Its corner
+  heights are random, and its four edges are made first by a 1D
+  midpoint displacement that only reads points on that edge. The
+  random numbers are keyed by world position, so two tiles that share
+  an edge give it exactly the same heights, and the tiles join without
+  gaps. The interior points are then made by the usual passes, which
+  leave the edges alone.
+
+  A tile also keeps an apron: the heights one step outside each of
+  its edges, copied from the neighbouring tiles (which are made for
+  the purpose, and then dropped). So the normal of an edge point can
+  use the same central differences as an interior point, and two
+  tiles give a shared edge point the same normal, with no lighting
+  seam where they meet.
+
+  getVertices() is a compatibility view for code that still wants
+  the mesh as groups of 4 Point3d quads. One Point3d is made for each
+  grid vertex and shared between the (up to) 4 quads that touch it.
+
+
+  ------
+  Top tip suggested by Tom Egan: use a constant seed in order to
+  always generate the same random landscape for a given flatness
+  value. The world seed can be given on the FractalLand3D command
+  line, and is passed to the FractalMesh(flat, wLen, seed) constructor.
+*/
+
+import java.io.*;
+import java.util.concurrent.RecursiveAction;
+
+import javax.vecmath.*;
+import java.text.DecimalFormat;
+
+
+public class FractalMesh
+{
+  private static final int DEF_WORLD_LEN = 64;
+  /* The world length should be a power of 2 since it will be
+     halved repeatedly until a single mesh cell as a
+     width of 1 unit. */
+
+  private static final int MIN_PAR_LEN = 256;
+     // meshes smaller than this are always generated on one thread
+  private static final int BAND_PTS = 8192;
+     // a pass is split until a band has no more than this many points
+
+  // a height range of 10 units
+  private final static double MIN_HEIGHT = 2.0;
+  private final static double MAX_HEIGHT = 4.0;
+
+  // the edges of a tile, indexing apron[]
+  private final static int BACK = 0;    // row 0
+  private final static int FRONT = 1;   // row worldLen
+  private final static int LEFT = 2;    // column 0
+  private final static int RIGHT = 3;   // column worldLen
+
+
+  private int worldLen;        // side length of the mesh, in cells
+  private int numPts;          // points along a side: worldLen+1
+  private boolean isTile;      // one tile of a larger world?
+  private int xOrigin, zOrigin;  // world (x,z) of heights[0]
+  private float heights[];     // the heightfield; heights[z*numPts + x]
+  private float apron[][] = null;   // a tile's neighbours' heights next to each edge
+  private Point3d vertGrid[];  // shared points for getVertices(); built on demand
+  private DecimalFormat df;    // for output of mesh
+
+  private double flatness;
+  /* Amount used to reduce dHeight on each recursive
+     call to divideMesh(). A larger value makes
+     landscape smoother; smaller is more chaotic
+  */
+
+  private long meshSeed;      // the landscape is a function of this
+  private boolean parallel;   // use fork/join for the passes?
+
+
+  public FractalMesh(double flat)
+  {  this(flat, DEF_WORLD_LEN);  }
+
+
+  public FractalMesh(double flat, int wLen)
+  {  this(flat, wLen, System.nanoTime());  }
+
+
+  public FractalMesh(double flat, int wLen, long sd)
+  {  this(flat, wLen, sd, (wLen >= MIN_PAR_LEN));  }
+
+
+  public FractalMesh(double flat, int wLen, long sd, boolean par)
+  // a mesh centered on (0,0)
+  {
+    init(flat, wLen, sd, par);
+    isTile = false;
+    xOrigin = -worldLen/2;
+    zOrigin = -worldLen/2;
+    makeMesh();
+  } // end of FractalMesh()
+
+
+  public FractalMesh(double flat, int wLen, long sd, int tileX, int tileZ)
+  // the (tileX, tileZ) tile of an unbounded world
+  {  this(flat, wLen, sd, tileX, tileZ, true);  }
+
+
+  private FractalMesh(double flat, int wLen, long sd, int tileX, int tileZ,
+                      boolean withApron)
+  {
+    init(flat, wLen, sd, (wLen >= MIN_PAR_LEN));
+    isTile = true;
+    xOrigin = tileX*worldLen;
+    zOrigin = tileZ*worldLen;
+    makeTile();
+    if (withApron)
+      makeApron(sd, tileX, tileZ);
+  } // end of FractalMesh() for a tile
+
+
+  private void init(double flat, int wLen, long sd, boolean par)
+  {
+    flatness = flat;
+    meshSeed = WorldRandom.stream(sd, "mesh");
+    parallel = par;
+    worldLen = wLen;
+    if (!isPowerOfTwo(worldLen)) {
+      System.out.println("Mesh length must be a power of 2; using " + DEF_WORLD_LEN);
+      worldLen = DEF_WORLD_LEN;
+    }
+    numPts = worldLen+1;
+    heights = new float[numPts*numPts];
+    df = new DecimalFormat("0.##");  // 2 dp
+  }  // end of init()
+
+
+  private boolean isPowerOfTwo(int n)
+  {  return (n > 0) && ((n & (n-1)) == 0);  }
+
+
+  private void makeMesh()
+  /* Initialise the 4 corners of the mesh with random heights
+     within the MIN and MAX range. Then start recursively
+     generating midoints by calling divideMesh(). */
+  {
+    System.out.println("Building the landscape...please wait");
+    setHeight(0, 0, randomHeight());                  // back left
+    setHeight(0, worldLen, randomHeight());           // back right
+    setHeight(worldLen, 0, randomHeight());           // front left
+    setHeight(worldLen, worldLen, randomHeight());    // front right
+
+    divideMesh( (MAX_HEIGHT-MIN_HEIGHT)/flatness, worldLen/2);
+
+  } // end of makeMesh()
+
+
+  private double randomHeight()
+  // between MIN_HEIGHT and MAX_HEIGHT
+  {  return 2.0;  }
+
+
+  private void makeTile()
+  /* Give the tile's corners random heights, keyed by their world
+     positions, then fix the four edges before filling in the
+     interior with divideMesh(). */
+  {
+    setTileCorner(0, 0);
+    setTileCorner(0, worldLen);
+    setTileCorner(worldLen, 0);
+    setTileCorner(worldLen, worldLen);
+
+    divideEdges( (MAX_HEIGHT-MIN_HEIGHT)/flatness, worldLen/2);
+    divideMesh( (MAX_HEIGHT-MIN_HEIGHT)/flatness, worldLen/2);
+  }  // end of makeTile()
+
+
+  private void makeApron(long sd, int tileX, int tileZ)
+  /* Copy the heights one step outside each edge from the neighbouring
+     tiles. Their edges are the same as this tile's, so the rows next
+     to them are the ones wanted. */
+  {
+    FractalMesh back = new FractalMesh(flatness, worldLen, sd, tileX, tileZ-1, false);
+    FractalMesh front = new FractalMesh(flatness, worldLen, sd, tileX, tileZ+1, false);
+    FractalMesh left = new FractalMesh(flatness, worldLen, sd, tileX-1, tileZ, false);
+    FractalMesh right = new FractalMesh(flatness, worldLen, sd, tileX+1, tileZ, false);
+
+    apron = new float[4][numPts];
+    for (int i=0; i < numPts; i++) {
+      apron[BACK][i] = back.getHeight(worldLen-1, i);
+      apron[FRONT][i] = front.getHeight(1, i);
+      apron[LEFT][i] = left.getHeight(i, worldLen-1);
+      apron[RIGHT][i] = right.getHeight(i, 1);
+    }
+  }  // end of makeApron()
+
+
+  private void setTileCorner(int z, int x)
+  {  setHeight(z, x, WorldRandom.range(meshSeed, pointId(z, x), 0,
+                                         MIN_HEIGHT, MAX_HEIGHT));  }
+
+
+  private void divideEdges(double dHeight, int stepSize)
+  /* 1D midpoint displacement along the four edges of a tile. An edge
+     point only uses the two points stepSize away along the same edge.
+     (calcHeight() averages four heights, so each is passed twice.) */
+  {
+    if (stepSize >= 1) {
+      for (int i = stepSize; i < worldLen; i += (stepSize*2)) {
+        setEdge(0, i, 0, i-stepSize, 0, i+stepSize, dHeight, stepSize);   // back
+        setEdge(worldLen, i, worldLen, i-stepSize, 
+                             worldLen, i+stepSize, dHeight, stepSize);    // front
+        setEdge(i, 0, i-stepSize, 0, i+stepSize, 0, dHeight, stepSize);   // left
+        setEdge(i, worldLen, i-stepSize, worldLen, 
+                             i+stepSize, worldLen, dHeight, stepSize);    // right
+      }
+      divideEdges(dHeight/flatness, stepSize/2);
+    }
+  }  // end of divideEdges()
+
+
+  private void setEdge(int z, int x, int z1, int x1, int z2, int x2,
+                                       double dHeight, int stepSize)
+  { double h1 = getHeight(z1, x1);
+    double h2 = getHeight(z2, x2);
+    setHeight(z, x, calcHeight(h1, h2, h1, h2, dHeight, pointId(z, x), stepSize));
+  }  // end of setEdge()
+
+
+  private void divideMesh(double dHeight, int stepSize)
+  /* At each step, we must perform the diamond step for
+     the entire mesh before doing the square step. */
+  {
+    if (stepSize >= 1) {   // stop recursing once stepSize is < 1
+      // diamond step for all mid points at this level
+      runPass(true, dHeight, stepSize);
+
+      // square step for all points surrounding diamonds
+      runPass(false, dHeight, stepSize);
+
+      divideMesh(dHeight/flatness, stepSize/2);
+    }
+  }  // end of divideMesh()
+
+
+  private int numRows(boolean isDiamond, int stepSize)
+  /* The diamond rows are at z = stepSize, 3*stepSize, ...
+     The square rows are at z = 0, stepSize, 2*stepSize, ..., worldLen */
+  {
+    if (isDiamond)
+      return worldLen/(stepSize*2);
+    return (worldLen/stepSize) + 1;
+  }  // end of numRows()
+
+
+  private void runPass(boolean isDiamond, double dHeight, int stepSize)
+  // calculate every row of the pass, in parallel if the mesh is big enough
+  {
+    int rows = numRows(isDiamond, stepSize);
+    if (parallel)
+      new PassTask(isDiamond, dHeight, stepSize, 0, rows).invoke();
+    else
+      doRows(isDiamond, dHeight, stepSize, 0, rows);
+  }  // end of runPass()
+
+
+  private void doRows(boolean isDiamond, double dHeight, int stepSize,
+                                          int startRow, int endRow)
+  // calculate pass rows startRow to endRow-1
+  {
+    for (int r = startRow; r < endRow; r++) {
+      if (isDiamond)
+        diamondRow( stepSize + r*stepSize*2, dHeight, stepSize);
+      else
+        squareRow( r*stepSize, dHeight, stepSize);
+    }
+  }  // end of doRows()
+
+
+  private void diamondRow(int zPt, double dHeight, int stepSize)
+  // the diamonds are the mid points of the cells in the row
+  {
+    for (int xPt = stepSize; xPt < numPts; xPt += (stepSize*2))
+      setHeight(zPt, xPt, getDiamond(zPt, xPt, dHeight, stepSize));
+  }  // end of diamondRow()
+
+
+  private void squareRow(int zPt, double dHeight, int stepSize)
+  /* A row that passes through diamonds has squares at the even
+     multiples of stepSize (including the left and right columns);
+     a row between diamonds has them at the odd multiples. 
+     A tile's edges have already been made, so they are skipped. */
+  {
+    if (isTile && ((zPt == 0) || (zPt == worldLen)))
+      return;
+    int xPt = ((zPt/stepSize)%2 == 1) ? 0 : stepSize;
+    if (isTile && (xPt == 0))
+      xPt += (stepSize*2);
+    int xEnd = isTile ? worldLen : numPts;
+    while (xPt < xEnd) {
+      setHeight(zPt, xPt, getSquare(zPt, xPt, dHeight, stepSize));
+      xPt += (stepSize*2);
+    }
+  }  // end of squareRow()
+
+
+
+  private class PassTask extends RecursiveAction
+  /* Calculates a band of rows for one pass, splitting itself
+     in half until the band is small enough. */
+  {
+    private static final long serialVersionUID = 1L;
+    private boolean isDiamond;
+    private double dHeight;
+    private int stepSize, startRow, endRow;
+
+    public PassTask(boolean isD, double dH, int step, int start, int end)
+    { isDiamond = isD;  dHeight = dH;  stepSize = step;
+      startRow = start;  endRow = end;
+    }
+
+    protected void compute()
+    {
+      int rowPts = (numPts/(stepSize*2)) + 1;   // max points in a row
+      if ((endRow - startRow < 2) || ((endRow - startRow)*rowPts <= BAND_PTS))
+        doRows(isDiamond, dHeight, stepSize, startRow, endRow);
+      else {
+        int mid = (startRow + endRow)/2;
+        invokeAll( new PassTask(isDiamond, dHeight, stepSize, startRow, mid),
+                   new PassTask(isDiamond, dHeight, stepSize, mid, endRow) );
+      }
+    }
+  }  // end of PassTask class
+
+
+  private double getDiamond(int z, int x, double dHeight, int stepSize)
+  {
+    double leftBack = getHeight(cCoord(z-stepSize), cCoord(x-stepSize));
+    double rightBack = getHeight(cCoord(z-stepSize), cCoord(x+stepSize));
+    double leftFront = getHeight(cCoord(z+stepSize), cCoord(x-stepSize));
+    double rightFront = getHeight(cCoord(z+stepSize), cCoord(x+stepSize));
+    return calcHeight(leftBack, rightBack, leftFront, rightFront,
+                                   dHeight, pointId(z, x), stepSize);
+  } // end of getDiamond()
+
+
+  private double getSquare(int z, int x, double dHeight, int stepSize)
+  {
+    double back = getHeight(cCoord(z-stepSize), x);
+    double front = getHeight(cCoord(z+stepSize), x);
+    double left = getHeight(z, cCoord(x-stepSize));
+    double right = getHeight(z, cCoord(x+stepSize));
+    return calcHeight(back, front, left, right,
+                                   dHeight, pointId(z, x), stepSize);
+  } // end of getSquare()
+
+
+  private int cCoord(int coordIdx)
+  /* If the coord index is less then o, greater then worldLen
+     then use the coord on the opposite edge of the mesh.
+  */
+  {
+    if (coordIdx < 0)
+      return worldLen + coordIdx;
+    else if (coordIdx > worldLen)
+      return coordIdx - worldLen;
+    else
+      return coordIdx;
+  } // end of cCoord()
+
+
+  private double calcHeight(double back, double front,
+          double left, double right, double dHeight, long id, int stepSize)
+  /* If the calculated height is < MIN_HEIGHT, set it to MIN_HEIGHT.
+     If the calculated height is > MAX_HEIGHT, then take modulo
+     MAX_HEIGHT.
+  */
+  {
+    double height = (back + front + left + right)/4.0f +
+                                           randomRange(dHeight, id, stepSize);
+    if (height < MIN_HEIGHT)
+      height = MIN_HEIGHT;
+    else if (height > MAX_HEIGHT)
+      height = height%MAX_HEIGHT;
+    return height;
+  }  // end of calcHeight()
+
+
+  private double randomRange(double h, long id, int stepSize)
+  /* Between -h and h. Every mesh point is calculated exactly once,
+     so its id (and the pass's step size) are enough to give it
+     its own random value from WorldRandom. */
+  {  return WorldRandom.range(meshSeed, id, stepSize, -h, h);  }
+
+
+  private long pointId(int z, int x)
+  // the point's world (x,z) position packed into a long
+  {  return (((long) (zOrigin + z)) << 32) | ((xOrigin + x) & 0xFFFFFFFFL);  }
+
+
+  private void setHeight(int z, int x, double h)
+  {  heights[z*numPts + x] = (float) h;  }
+
+
+
+  // ------------------ heightfield access -----------------------
+
+
+  public int getWorldLen()
+  {  return worldLen;  }
+
+
+  public int getXOrigin()
+  // world x of column 0
+  {  return xOrigin;  }
+
+
+  public int getZOrigin()
+  // world z of row 0
+  {  return zOrigin;  }
+
+
+  public float[] getHeights()
+  /* Return the heightfield itself (not a copy): numPts*numPts
+     heights in row-major order, z in the rows, x in the columns. */
+  {  return heights;  }
+
+
+  public float getHeight(int z, int x)
+  // height of the mesh point in row z, column x
+  {  return heights[z*numPts + x];  }
+
+
+  public double getHeightAt(double xWorld, double zWorld)
+  /* The exact height of the rendered mesh at the world position 
+     (xWorld, zWorld), which should be inside the mesh (points outside
+     are moved onto the nearest cell).
+
+     Each cell is the quad PQRS of PlaneEquation/PointHeight.java:
+     P is at (x, z+1), Q at (x+1, z+1), R at (x+1, z), S at (x, z),
+     in the same order as getVertices(). The quad is drawn as the two
+     triangles PQR and PRS, split along the PR line. With (u,w) as the
+     point's offset inside the cell, it lies in PQR when u+w > 1 (above PR).
+     The plane equations that PointHeight builds from the triangles' 
+     normals reduce to the linear interpolations below on a 1x1 cell.
+  */
+  {
+    double xCell = xWorld - xOrigin;
+    double zCell = zWorld - zOrigin;
+    int x = toCell(xCell);
+    int z = toCell(zCell);
+    double u = xCell - x;
+    double w = zCell - z;
+
+    int sIdx = z*numPts + x;      // the four corners of the cell
+    float hS = heights[sIdx];
+    float hR = heights[sIdx+1];
+    float hP = heights[sIdx+numPts];
+    float hQ = heights[sIdx+numPts+1];
+
+    if (u + w > 1.0)    // triangle PQR
+      return hQ + (1.0-u)*(hP-hQ) + (1.0-w)*(hR-hQ);
+    else                // triangle PRS
+      return hS + u*(hR-hS) + w*(hP-hS);
+  }  // end of getHeightAt()
+
+
+  public void getNormalAt(double xWorld, double zWorld, float normals[], int offset)
+  /* Store the unit normal of the triangle under (xWorld, zWorld) in
+     normals[offset..offset+2]. The triangle's height is a + b*u + c*w
+     (see getHeightAt()), so its normal is (-b, 1, -c), normalized. */
+  {
+    double xCell = xWorld - xOrigin;
+    double zCell = zWorld - zOrigin;
+    int x = toCell(xCell);
+    int z = toCell(zCell);
+
+    int sIdx = z*numPts + x;
+    float hS = heights[sIdx];
+    float hR = heights[sIdx+1];
+    float hP = heights[sIdx+numPts];
+    float hQ = heights[sIdx+numPts+1];
+
+    float dx, dz;      // the slopes along x and z
+    if ((xCell - x) + (zCell - z) > 1.0) {    // triangle PQR
+      dx = hQ - hP;
+      dz = hQ - hR;
+    }
+    else {       // triangle PRS
+      dx = hR - hS;
+      dz = hP - hS;
+    }
+    float len = (float) Math.sqrt(dx*dx + 1.0f + dz*dz);
+    normals[offset] = -dx/len;
+    normals[offset+1] = 1.0f/len;
+    normals[offset+2] = -dz/len;
+  }  // end of getNormalAt()
+
+
+  public void getVertexNormal(int z, int x, float normals[], int offset)
+  /* Store a smooth unit normal for the mesh point in row z, column x
+     in normals[offset..offset+2]. The slopes along x and z are the
+     central differences of the neighbouring heights, which is close
+     to averaging the normals of the triangles around the point. At
+     a tile's edges the heights outside come from the apron; at the
+     edges of a whole mesh the differences are one-sided. */
+  {
+    float dx, dz;
+    if (apron != null) {
+      dx = (heightOrApron(z, x+1) - heightOrApron(z, x-1)) / 2;
+      dz = (heightOrApron(z+1, x) - heightOrApron(z-1, x)) / 2;
+    }
+    else {
+      int i = z*numPts + x;
+      int left = (x > 0) ? x-1 : x;
+      int right = (x < worldLen) ? x+1 : x;
+      int back = (z > 0) ? z-1 : z;
+      int front = (z < worldLen) ? z+1 : z;
+
+      dx = (heights[i-x+right] - heights[i-x+left]) / (right - left);
+      dz = (heights[front*numPts + x] - heights[back*numPts + x]) / (front - back);
+    }
+
+    float len = (float) Math.sqrt(dx*dx + 1.0f + dz*dz);
+    normals[offset] = -dx/len;
+    normals[offset+1] = 1.0f/len;
+    normals[offset+2] = -dz/len;
+  }  // end of getVertexNormal()
+
+
+  private float heightOrApron(int z, int x)
+  // the height of the tile point, which may be one step outside an edge
+  {
+    if (x < 0)
+      return apron[LEFT][z];
+    if (x > worldLen)
+      return apron[RIGHT][z];
+    if (z < 0)
+      return apron[BACK][x];
+    if (z > worldLen)
+      return apron[FRONT][x];
+    return heights[z*numPts + x];
+  }  // end of heightOrApron()
+
+
+  private int toCell(double coord)
+  // the cell containing the mesh coordinate, kept inside the mesh
+  {
+    int c = (int) Math.floor(coord);
+    if (c < 0)
+      return 0;
+    if (c > worldLen-1)
+      return worldLen-1;
+    return c;
+  }  // end of toCell()
+
+
+
+  public Point3d[] getVertices()
+  /* Return the mesh as an array of vertices. Each group of 4 points
+     will be used to create a TexturedPlane object.
+
+     We order the points so a plane is specified in anti-clockwise order,
+     which will be used when a texture is placed on it.
+
+     The Point3d objects are shared between neighbouring quads, so
+     there is only one object for each grid vertex.
+  */
+  { Point3d grid[] = getVertGrid();
+    int numVerts = worldLen*worldLen*4;
+    Point3d vertices[] = new Point3d[numVerts];
+
+    int vPos = 0;
+    for(int z=0; z<worldLen; z++) {
+      for(int x=0; x<worldLen; x++) {
+        vertices[vPos++] = grid[(z+1)*numPts + x];     // anti-clockwise creation
+        vertices[vPos++] = grid[(z+1)*numPts + x+1];   // from bottom-left
+        vertices[vPos++] = grid[z*numPts + x+1];
+        vertices[vPos++] = grid[z*numPts + x];
+      }
+    }
+    return vertices;
+  }  // end of getVertices
+
+
+  private Point3d[] getVertGrid()
+  // make a Point3d for each grid vertex, in world coordinates
+  {
+    if (vertGrid == null) {
+      vertGrid = new Point3d[heights.length];
+      int i = 0;
+      for(int z=0; z < numPts; z++)
+        for(int x=0; x < numPts; x++) {
+          vertGrid[i] = new Point3d(xOrigin + x, heights[i], zOrigin + z);
+          i++;
+        }
+    }
+    return vertGrid;
+  }  // end of getVertGrid()
+
+
+
+  // ---------------------- debugging ------------------
+
+
+  public void printMesh(int axis)
+  // axis values: x=0, y=1, z=2
+  {
+    File f = new File("mesh.txt");
+    PrintWriter pw = null;
+    try {
+      pw = new PrintWriter(new FileWriter(f),true);
+
+      if (axis == 0)
+        pw.println("---------- World X Coords ------------");
+      else if (axis == 1)
+        pw.println("---------- World Y Coords ------------");
+      else
+        pw.println("---------- World Z Coords ------------");
+
+      for(int z=0; z<numPts; z++) {
+        for(int x=0; x<numPts; x++)
+          if (axis == 0)
+            pw.print( df.format(xOrigin + x) + " ");
+          else if (axis == 1)
+            pw.print( df.format(getHeight(z, x)) + " ");
+          else
+           pw.print( df.format(zOrigin + z) + " ");
+        pw.println();
+      }
+      pw.println("--------------------------------------");
+
+      System.out.println("Mesh written to mesh.txt");
+    }
+    catch(Exception e)
+    {  System.out.println("Could not write mesh to mesh.txt");  }
+  }  // end of printMesh()
+
+
+}  // end of FractalMesh class
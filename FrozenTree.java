@@ -0,0 +1,323 @@
+// FrozenTree.java
+
+/* A FrozenTree replaces the scene graph of a tree which has
+   stopped growing.
+
+   A growing tree is a chain of TreeLimb subgraphs, each with its own
+   TransformGroups, so a limb at level 10 is under about 40 nested
+   TransformGroups, which Java 3D has to combine every frame, and each
+   limb is drawn separately. Once none of the tree's limbs can change
+   (see LimbState), TreePopulation makes a FrozenTree for it:
+
+     frozenBG ---> treeShape
+              |
+              ---> leafTG [ --> leafBG --> ImageCsSeries
+                            --> leafBG --> ImageCsSeries ]   (for each leafy limb)
+
+   treeShape is one Shape3D holding a copy of the shared limb cylinder
+   for every limb, already transformed to where the limb is in the
+   tree, and coloured per vertex with the limb's colour from the
+   rules' palette. The transforms are worked out from the LimbState
+   arrays, in the same way as TreeLimb builds them: a limb is rotated
+   about its axis, starts just short of the end of its parent, and its
+   cylinder is scaled to its radius and length.
+
+   The leaf screens are OrientedShape3Ds which turn to face the viewer,
+   so they can't be merged. The existing screens are moved over,
+   each pair under a single leafTG holding the transform of the
+   limb's end.
+
+   The FrozenTree goes under the TransformGroup that positions the
+   tree, in place of the base limb's subgraph, so the tree's
+   coordinates are relative to its base.
+
+   A frozen tree can also be drawn as an impostor when it is far away:
+   a single textured quad, turning about the y axis to face the viewer,
+   which shows a picture of the tree. ImpostorRenderer takes the picture
+   of the scene made by makeImpostorScene(), and passes it to
+   setImpostor(). The tree and the impostor hang from a Switch, which a
+   DistanceLOD flips to the impostor beyond the impostor distance:
+
+     frozenBG ---> treeSw ---> treeBG [ treeShape, leafTGs ]  (close up)
+              |           |
+              |           ---> impostorBG ---> impostor quad  (far away)
+              |
+              ---> lodBG ---> DistanceLOD (added with the impostor)
+*/
+
+import java.util.ArrayList;
+import javax.media.j3d.*;
+import javax.vecmath.*;
+
+
+public class FrozenTree extends BranchGroup
+{
+  // axis constants
+  private final static int X_AXIS = 0;
+  private final static int Y_AXIS = 1;
+
+  private static final int CYL_VERTS = TreeLimb.CYL_VERTS;
+
+  private static final float LEAF_REACH = 1.5f;
+     // how far a leaf screen (2 wide, turning about a point 0.5 away) can reach
+  private static final float LOD_BOUNDS = 200.0f;
+     // the DistanceLOD is active while the viewer is this close
+
+  // the tree's vertices, used by reference by treeShape (and the impostor scene)
+  private float coords[], norms[], colours[];
+  private int numVerts;
+
+  private ImageComponent2D leafIms[];
+  private ArrayList leafTrans;    // of Transform3D, for each pair of leaf screens
+
+  // the tree's extent: its distance from the y axis, and its height range
+  private float reach, minY, maxY;
+
+  private Switch treeSw;
+  private BranchGroup impostorBG;
+
+
+  public FrozenTree(LimbState st, int root, Color3f palette[], Appearance app,
+                    ImageComponent2D leafIms[])
+  /* Freeze the tree whose base limb is root. app should be lit, so
+     its diffuse colour is replaced by the vertex colours. */
+  {
+    this.leafIms = leafIms;
+    leafTrans = new ArrayList();
+    setCapability(Group.ALLOW_CHILDREN_EXTEND);   // for the DistanceLOD
+
+    BranchGroup treeBG = new BranchGroup();
+
+    int numLimbs = 0;
+    for (int i=root; i < st.count; i++)
+      if (st.root[i] == root)
+        numLimbs++;
+
+    coords = new float[numLimbs*CYL_VERTS*3];
+    norms = new float[numLimbs*CYL_VERTS*3];
+    colours = new float[numLimbs*CYL_VERTS*3];
+
+    /* the transform to the start of each limb; a limb's parent comes
+       before it in the arrays, and in the tree, so it's done first */
+    Transform3D limbTrans[] = new Transform3D[st.count];
+    Transform3D rot = new Transform3D();
+    Transform3D endTrans = new Transform3D();
+    Vector3d endPos = new Vector3d();
+
+    int v = 0;
+    for (int i=root; i < st.count; i++) {
+      if (st.root[i] != root)
+        continue;
+
+      // the parent's end, then the limb's own rotation
+      limbTrans[i] = new Transform3D();
+      if (i != root)
+        limbTrans[i].mul(limbTrans[ st.parent[i] ], endOf(st, st.parent[i], endPos, endTrans));
+      if (st.angle[i] != 0) {
+        setRotation(rot, st.axis[i], st.angle[i]);
+        limbTrans[i].mul(rot);
+      }
+
+      v = addLimb(st, i, limbTrans[i], palette[ st.colour[i] ],
+                  coords, norms, colours, v);
+
+      if (st.hasLeaves[i]) {
+        Transform3D leafTrans = new Transform3D();
+        leafTrans.mul(limbTrans[i], endOf(st, i, endPos, endTrans));
+        TransformGroup leafTG = new TransformGroup(leafTrans);
+        st.limbs[i].moveLeaves(leafTG);
+        treeBG.addChild(leafTG);
+        this.leafTrans.add(leafTrans);
+      }
+    }
+    numVerts = v;
+    treeBG.addChild( new Shape3D(makeGeometry(), app) );
+    findExtent();
+
+    // the tree close up, and (when there is one) the impostor far away
+    treeSw = new Switch(0);
+    treeSw.setCapability(Switch.ALLOW_SWITCH_WRITE);
+    treeSw.addChild(treeBG);
+    impostorBG = new BranchGroup();
+    impostorBG.setCapability(Group.ALLOW_CHILDREN_EXTEND);
+    treeSw.addChild(impostorBG);
+    addChild(treeSw);
+
+    if (Metrics.isOn()) {   // the limbs' nodes are replaced by these; the leaves are moved
+      Metrics.SHAPES.addAndGet(1 - numLimbs);
+      Metrics.TRANSFORM_GROUPS.addAndGet(leafTrans.size() - 3*numLimbs);
+    }
+  }  // end of FrozenTree()
+
+
+  private TriangleArray makeGeometry()
+  // a TriangleArray using the tree's vertices by reference
+  {
+    TriangleArray tree = new TriangleArray(numVerts,
+                            GeometryArray.COORDINATES | GeometryArray.NORMALS |
+                            GeometryArray.COLOR_3 | GeometryArray.BY_REFERENCE);
+    tree.setCoordRefFloat(coords);
+    tree.setNormalRefFloat(norms);
+    tree.setColorRefFloat(colours);
+    return tree;
+  }  // end of makeGeometry()
+
+
+  private void findExtent()
+  // the tree's reach from the y axis, and its height range, including the leaves
+  {
+    reach = 0;
+    minY = 0;  maxY = 0;
+    for (int v=0; v < numVerts; v++)
+      extendTo(coords[3*v], coords[3*v+1], coords[3*v+2], 0);
+
+    Vector3d leafPos = new Vector3d();
+    for (int i=0; i < leafTrans.size(); i++) {
+      ((Transform3D) leafTrans.get(i)).get(leafPos);
+      extendTo((float) leafPos.x, (float) leafPos.y, (float) leafPos.z, LEAF_REACH);
+    }
+  }  // end of findExtent()
+
+
+  private void extendTo(float x, float y, float z, float size)
+  {
+    reach = Math.max(reach, (float) Math.sqrt(x*x + z*z) + size);
+    minY = Math.min(minY, y - size);
+    maxY = Math.max(maxY, y + size);
+  }  // end of extendTo()
+
+
+  private Transform3D endOf(LimbState st, int i, Vector3d endPos, Transform3D endTrans)
+  // the offset of limb i's endLimbTG, as set by TreeLimb.setScale()
+  {
+    endPos.set(0, st.length[i]*(1.0-TreeLimb.OVERLAP) * st.lengthScale[i], 0);
+    endTrans.set(endPos);
+    return endTrans;
+  }  // end of endOf()
+
+
+  private void setRotation(Transform3D rot, int axis, double angle)
+  // the orientTG rotation of TreeLimb
+  {
+    if (axis == X_AXIS)
+      rot.rotX( Math.toRadians(angle));
+    else if (axis == Y_AXIS)
+      rot.rotY( Math.toRadians(angle));
+    else    // must be z-axis
+      rot.rotZ( Math.toRadians(angle));
+  }  // end of setRotation()
+
+
+  private int addLimb(LimbState st, int i, Transform3D limbTrans, Color3f colour,
+                      float coords[], float norms[], float colours[], int v)
+  /* Add a copy of the cylinder, scaled to limb i's size and moved
+     by limbTrans, starting at vertex v. Return the next vertex. */
+  {
+    float rad = st.getRadius(i);
+    float len = st.getLength(i);
+    float cyl[] = TreeLimb.cylCoords;
+    float cylNorms[] = TreeLimb.cylNorms;
+    Point3f pt = new Point3f();
+    Vector3f norm = new Vector3f();
+    for (int c=0; c < CYL_VERTS; c++, v++) {
+      pt.set(cyl[3*c]*rad, cyl[3*c+1]*len, cyl[3*c+2]*rad);
+      limbTrans.transform(pt);
+      coords[3*v] = pt.x;  coords[3*v+1] = pt.y;  coords[3*v+2] = pt.z;
+
+      /* a normal is scaled by the inverse of the cylinder's scaling;
+         limbTrans is only rotations and translations */
+      norm.set(cylNorms[3*c]/rad, cylNorms[3*c+1]/len, cylNorms[3*c+2]/rad);
+      limbTrans.transform(norm);
+      norm.normalize();
+      norms[3*v] = norm.x;  norms[3*v+1] = norm.y;  norms[3*v+2] = norm.z;
+
+      colours[3*v] = colour.x;  colours[3*v+1] = colour.y;  colours[3*v+2] = colour.z;
+    }
+    return v;
+  }  // end of addLimb()
+
+
+
+  // ------------------------ impostor ---------------------------
+
+
+  public float getReach()
+  {  return reach;  }
+
+  public float getMinY()
+  {  return minY;  }
+
+  public float getMaxY()
+  {  return maxY;  }
+
+
+  public ImageComponent2D[] getLeafImages()
+  {  return leafIms;  }
+
+
+  public BranchGroup makeImpostorScene(Appearance app, ImageComponent2D ims[])
+  /* A copy of the tree for ImpostorRenderer's own universe, where
+     it is drawn to make the impostor's picture. The copy uses the
+     same vertex arrays, but has its own nodes and app; the leaves
+     are new screens showing the last image of ims. */
+  {
+    BranchGroup sceneBG = new BranchGroup();
+    sceneBG.setCapability(BranchGroup.ALLOW_DETACH);
+    sceneBG.addChild( new Shape3D(makeGeometry(), app) );
+    for (int i=0; i < leafTrans.size(); i++) {
+      TransformGroup leafTG = new TransformGroup( (Transform3D) leafTrans.get(i));
+      ImageCsSeries frontLeafShape = new ImageCsSeries(0.5f, 2.0f, ims);
+      ImageCsSeries backLeafShape = new ImageCsSeries(-0.5f, 2.0f, ims);
+      frontLeafShape.showImage(ims.length-1);
+      backLeafShape.showImage(ims.length-1);
+      leafTG.addChild(frontLeafShape);
+      leafTG.addChild(backLeafShape);
+      sceneBG.addChild(leafTG);
+    }
+    return sceneBG;
+  }  // end of makeImpostorScene()
+
+
+  public void setImpostor(ImageComponent2D im, double dist)
+  /* Show a quad with im on it in place of the tree when the viewer is
+     more than dist away. im shows the tree from the side, covering
+     -reach to reach across, and minY to maxY up. Called on the
+     behaviour thread. */
+  {
+    QuadArray quad = new QuadArray(4, GeometryArray.COORDINATES |
+                                      GeometryArray.TEXTURE_COORDINATE_2);
+    quad.setCoordinates(0, new float[] { -reach, minY, 0,   reach, minY, 0,
+                                          reach, maxY, 0,  -reach, maxY, 0 });
+    quad.setTextureCoordinates(0, 0, new float[] { 0,0,  1,0,  1,1,  0,1 });
+
+    Appearance app = new Appearance();
+    TransparencyAttributes tra = new TransparencyAttributes();
+    tra.setTransparencyMode( TransparencyAttributes.BLENDED );
+    app.setTransparencyAttributes( tra );
+    Texture2D texture = new Texture2D(Texture2D.BASE_LEVEL, Texture.RGBA,
+                                      im.getWidth(), im.getHeight());
+    texture.setMagFilter(Texture2D.BASE_LEVEL_LINEAR);
+    texture.setImage(0, im);
+    app.setTexture(texture);
+
+    // turn about the y axis to face the viewer, like a tree would appear to
+    OrientedShape3D impostor = new OrientedShape3D(quad, app,
+                        OrientedShape3D.ROTATE_ABOUT_AXIS, new Vector3f(0,1,0));
+    BranchGroup bg = new BranchGroup();
+    bg.addChild(impostor);
+    impostorBG.addChild(bg);
+
+    DistanceLOD lod = new DistanceLOD(new float[] { (float) dist });
+    lod.addSwitch(treeSw);
+    lod.setSchedulingBounds( new BoundingSphere(new Point3d(), LOD_BOUNDS) );
+    BranchGroup lodBG = new BranchGroup();
+    lodBG.addChild(lod);
+    addChild(lodBG);
+
+    if (Metrics.isOn()) {
+      Metrics.SHAPES.incrementAndGet();
+      Metrics.TEXTURE_UPLOADS.record(1);
+    }
+  }  // end of setImpostor()
+
+}  // end of FrozenTree class
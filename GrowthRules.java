@@ -0,0 +1,247 @@
+// GrowthRules.java
+
+/* The growth rules for one species of tree, as used by TreePopulation.
+   They were if-tests with the numbers written into them; now the numbers
+   come from a rules file (rules/<species>.txt), so each species can
+   grow in its own way.
+
+   A rules file has a line for each rule, a keyword followed by
+   its numbers; '//' starts a comment. A rule which isn't in the
+   file keeps its default, which is how the trees grew before:
+
+     lengthen  1.0 1.1          // while length < 1.0, scale the length by 1.1
+     thicken   0.25 -0.05 1.05  // while radius <= 0.25 + -0.05*level, scale it by 1.05
+     colour    15               // steps to turn from green to brown
+     spawn     5 256 10         // spawn the branches at age 5, while there are
+                                // no more than 256 limbs, below level 10
+     branch    0.5 0.85 10 30   // a branch: the chance of the z axis (else x),
+     branch    0.5 0.85 -30 -10 //   the chance it grows, and its angle range
+     leaves    3 0.08 10        // above level 3, a childless limb starts leaves
+                                // with chance 0.08; next leaf image every 10 ages
+     bucket    100 2.0 0 0 1    // a base limb at age 100: radius x2, colour blue
+
+   The branch lines are the productions of a simple L-system: when
+   a limb spawns, each branch may replace it by the limb plus a child.
+   There can be up to MAX_BRANCHES of them; the first branch line in
+   a file replaces all the default branches.
+
+   The file is read once, and compiled into primitive fields and
+   tables indexed by a limb's level, which TreePopulation reads
+   directly in its rules loop (no reflection, no boxing, no lookups
+   by name). The fields are package access, like LimbState's.
+
+   The colours a limb can be are compiled into a palette: index k
+   is the colour after k steps from green to brown, and the last
+   entry is the bucket colour. A limb's colour is stored as an index
+   into it, and TreePopulation makes a shared Appearance for each entry.
+*/
+
+import java.io.*;
+import java.util.*;
+import javax.vecmath.*;
+
+
+public class GrowthRules
+{
+  static final int MAX_BRANCHES = 4;
+  static final int MAX_LEVEL = 63;     // the level tables go up to here
+
+  // bits in levelRules[]
+  static final int CAN_SPAWN = 1;
+  static final int CAN_LEAF = 2;
+
+  // lengthen
+  float maxLength = 1.0f;
+  float lengthRate = 1.1f;
+
+  // thicken: the radius limit is radiusBase + radiusPerLevel*level
+  float radiusBase = 0.25f;
+  float radiusPerLevel = -0.05f;
+  float radiusRate = 1.05f;
+
+  // colour
+  int colourSteps = 15;
+
+  // spawn
+  int spawnAge = 5;
+  int maxLimbs = 256;
+  int spawnBelowLevel = 10;
+
+  // branches
+  int numBranches = 2;
+  double zAxisChance[] = {0.5, 0.5, 0, 0};
+  double branchChance[] = {0.85, 0.85, 0, 0};
+  double minAngle[] = {10, -30, 0, 0};
+  double maxAngle[] = {30, -10, 0, 0};
+
+  // leaves
+  int leafAboveLevel = 3;
+  double leafChance = 0.08;
+  int leafInterval = 10;
+
+  // bucket
+  int bucketAge = 100;
+  double bucketScale = 2.0;
+  float bucketRed = 0.0f, bucketGreen = 0.0f, bucketBlue = 1.0f;
+
+  // compiled from the above
+  float maxRadius[];      // the radius limit for each level
+  byte levelRules[];      // CAN_SPAWN and CAN_LEAF for each level
+  int numDraws;           // random draws a limb can make in one tick
+  int leafDraw;           // the draw used for starting leaves
+  Color3f palette[];      // the limb colours
+  int bucketColour;       // the index of the bucket colour in palette[]
+
+
+
+  public GrowthRules()
+  // the default rules
+  {  compile();  }
+
+
+  public static GrowthRules load(String fnm)
+  /* Read the rules from fnm. If the file can't be read, print a
+     message and use the default rules. */
+  {
+    GrowthRules rules = new GrowthRules();
+    try {
+      BufferedReader br = new BufferedReader( new FileReader(fnm));
+      boolean haveBranch = false;
+      String line;
+      int lineNo = 0;
+      while ((line = br.readLine()) != null) {
+        lineNo++;
+        int comment = line.indexOf("//");
+        if (comment >= 0)
+          line = line.substring(0, comment);
+        StringTokenizer tokens = new StringTokenizer(line);
+        if (!tokens.hasMoreTokens())
+          continue;
+        String keyword = tokens.nextToken();
+        double vals[] = getNumbers(tokens);
+        if (vals == null)
+          System.out.println(fnm + " line " + lineNo + ": incorrect number");
+        else {
+          if (keyword.equals("branch") && !haveBranch) {
+            rules.numBranches = 0;    // the file's branches replace the defaults
+            haveBranch = true;
+          }
+          if (!rules.setRule(keyword, vals))
+            System.out.println(fnm + " line " + lineNo + ": incorrect rule: " + keyword);
+        }
+      }
+      br.close();
+    }
+    catch (IOException e)
+    { System.out.println("Error reading rules file: " + fnm + "; using the default rules");
+      return new GrowthRules();
+    }
+    rules.compile();
+    return rules;
+  }  // end of load()
+
+
+  private static double[] getNumbers(StringTokenizer tokens)
+  // the rest of the line's numbers, or null if one isn't a number
+  {
+    double vals[] = new double[tokens.countTokens()];
+    try {
+      for (int i=0; i < vals.length; i++)
+        vals[i] = Double.parseDouble( tokens.nextToken() );
+    }
+    catch (NumberFormatException ex)
+    {  return null;  }
+    return vals;
+  }  // end of getNumbers()
+
+
+  private boolean setRule(String keyword, double vals[])
+  // set the numbers for a rule; return false if they aren't right for it
+  {
+    if (keyword.equals("lengthen") && (vals.length == 2)) {
+      maxLength = (float) vals[0];
+      lengthRate = (float) vals[1];
+    }
+    else if (keyword.equals("thicken") && (vals.length == 3)) {
+      radiusBase = (float) vals[0];
+      radiusPerLevel = (float) vals[1];
+      radiusRate = (float) vals[2];
+    }
+    else if (keyword.equals("colour") && (vals.length == 1) && (vals[0] >= 1))
+      colourSteps = (int) vals[0];
+    else if (keyword.equals("spawn") && (vals.length == 3)) {
+      spawnAge = (int) vals[0];
+      maxLimbs = (int) vals[1];
+      spawnBelowLevel = (int) vals[2];
+    }
+    else if (keyword.equals("branch") && (vals.length == 4) &&
+             (numBranches < MAX_BRANCHES)) {
+      zAxisChance[numBranches] = vals[0];
+      branchChance[numBranches] = vals[1];
+      minAngle[numBranches] = vals[2];
+      maxAngle[numBranches] = vals[3];
+      numBranches++;
+    }
+    else if (keyword.equals("leaves") && (vals.length == 3) && (vals[2] >= 1)) {
+      leafAboveLevel = (int) vals[0];
+      leafChance = vals[1];
+      leafInterval = (int) vals[2];
+    }
+    else if (keyword.equals("bucket") && (vals.length == 5)) {
+      bucketAge = (int) vals[0];
+      bucketScale = vals[1];
+      bucketRed = (float) vals[2];
+      bucketGreen = (float) vals[3];
+      bucketBlue = (float) vals[4];
+    }
+    else
+      return false;
+    return true;
+  }  // end of setRule()
+
+
+  private void compile()
+  /* Work out the values which the rules use for every limb: the
+     colour palette, and the per-level tables. Each branch
+     makes three random draws (axis, whether it grows, angle), and
+     starting leaves makes one more. */
+  {
+    /* The colour rule takes colourSteps+1 steps (so it ends a step
+       past brown). Each step adds the same shift, as it used to be
+       added to the limb's colour. */
+    float redShift = (TreeLimb.brown.x - TreeLimb.green.x)/((float) colourSteps);
+    float greenShift = (TreeLimb.brown.y - TreeLimb.green.y)/((float) colourSteps);
+    float blueShift = (TreeLimb.brown.z - TreeLimb.green.z)/((float) colourSteps);
+    palette = new Color3f[colourSteps+3];
+    palette[0] = new Color3f(TreeLimb.green);
+    for (int k=1; k <= colourSteps+1; k++)
+      palette[k] = new Color3f(palette[k-1].x + redShift,
+                               palette[k-1].y + greenShift, palette[k-1].z + blueShift);
+    bucketColour = colourSteps+2;
+    palette[bucketColour] = new Color3f(bucketRed, bucketGreen, bucketBlue);
+
+    maxRadius = new float[MAX_LEVEL+1];
+    levelRules = new byte[MAX_LEVEL+1];
+    for (int level=0; level <= MAX_LEVEL; level++) {
+      maxRadius[level] = radiusPerLevel*level + radiusBase;
+      int bits = 0;
+      if ((level < spawnBelowLevel) && (numBranches > 0))
+        bits |= CAN_SPAWN;
+      if ((level > leafAboveLevel) && (leafChance > 0))
+        bits |= CAN_LEAF;
+      levelRules[level] = (byte) bits;
+    }
+
+    leafDraw = 3*numBranches;
+    numDraws = leafDraw+1;
+  }  // end of compile()
+
+
+  public int getLevelRules(int level)
+  // the CAN_ bits for a limb at this level
+  {  return levelRules[ Math.min(level, MAX_LEVEL) ];  }
+
+  public float getMaxRadius(int level)
+  {  return maxRadius[ Math.min(level, MAX_LEVEL) ];  }
+
+}  // end of GrowthRules class
@@ -0,0 +1,250 @@
+// GrowthScheduler.java
+
+/* GrowthScheduler is the one Behavior that grows all the trees. It
+   replaces a GrowthBehavior per kind of tree, each of which woke up
+   every second and grew all its limbs in one burst, causing a
+   visible hitch.
+
+   The scheduler owns a list of TreePopulations. Every TIME_DELAY ms
+   it starts a new generation: one growth tick for every limb of
+   every population. The generation is not done all at once; instead
+   the scheduler wakes up every frame and grows limbs in batches
+   until it has used up its budget of time for that frame, then
+   carries on from the same place in the next frame. So the cost
+   per frame stays roughly constant however many trees are growing;
+   with too many trees, the generations just take longer.
+
+   The size of a batch is the time left in the frame divided by the
+   average time a limb has taken so far. TreePopulation computes a
+   large batch in parallel, so with more cores a limb takes less time,
+   the batches get bigger, and more limbs are grown in each frame.
+
+   Limbs added during a generation are grown in the same generation,
+   as they were before, so the trees grow in exactly the same way.
+
+   If a generation finishes after the next one should have started,
+   the scheduler is behind. getLagMillis() says how late the current
+   generation is, and getPendingLimbs() how many limbs it still has to
+   grow. A message is printed when the scheduler falls behind, and when
+   it catches up again. If it falls more than a whole generation behind,
+   it doesn't try to catch up, and starts the next generation straight away.
+
+   The scheduler can be paused, and the trees grown a whole generation
+   at a time by growGeneration() instead, so how they grow doesn't
+   depend on the clock (HeadlessRenderer does this).
+
+   When the Metrics are on, each frame's time in the scheduler, the
+   limbs it grew, and the bytes it allocated, are recorded.
+*/
+
+import java.util.ArrayList;
+import java.util.Enumeration;
+import javax.media.j3d.*;
+
+
+public class GrowthScheduler extends Behavior
+{
+  private final static int TIME_DELAY = 1000;  // ms between generations
+  private final static int DEF_BUDGET = 2000;   // microsecs per frame
+  private final static int MIN_BATCH = 8;      // limbs grown between checks of the time
+  private final static int MAX_BATCH = 4096;
+  private final static long INIT_LIMB_TIME = 2000;   // guess at the ns per limb
+
+  private final static Metrics.Stat TICK_TIME = Metrics.stat("growth.tickNanos");
+  private final static Metrics.Stat TICK_LIMBS = Metrics.stat("growth.limbsPerTick");
+  private final static Metrics.Stat TICK_ALLOC = Metrics.stat("growth.allocBytesPerTick");
+
+  private WakeupCondition everyFrame;
+  private ArrayList populations;   // of TreePopulation objects
+  private long budget;             // in ns
+  private ImpostorRenderer impostors = null;
+
+  private volatile boolean isPaused = false;
+  private boolean inGeneration = false;
+  private long genDue;       // when the current (or next) generation should start (ns)
+  private int popIdx;        // where the generation has got to
+  private int limbIdx;
+  private boolean isBehind = false;
+  private long limbTime = INIT_LIMB_TIME;   // average ns to grow a limb
+  private int limbsGrown;    // in this frame, for the Metrics
+
+
+  public GrowthScheduler()
+  {  this(DEF_BUDGET);  }
+
+
+  public GrowthScheduler(int budgetMicros)
+  {
+    everyFrame = new WakeupOnElapsedFrames(0);
+    populations = new ArrayList();
+    setBudget(budgetMicros);
+    genDue = System.nanoTime();
+  }  // end of GrowthScheduler()
+
+
+  public void addPopulation(TreePopulation pop)
+  {
+    populations.add(pop);
+    if (impostors != null)
+      pop.setImpostors(impostors);
+  }  // end of addPopulation()
+
+
+  public void setImpostors(ImpostorRenderer ir)
+  // make impostors for the trees of every population, as they are frozen
+  {
+    impostors = ir;
+    for (int i=0; i < populations.size(); i++)
+      ((TreePopulation) populations.get(i)).setImpostors(ir);
+  }  // end of setImpostors()
+
+
+  public void setBudget(int budgetMicros)
+  // the time the scheduler may use in each frame
+  {  budget = budgetMicros*1000L;  }
+
+  public int getBudget()
+  {  return (int) (budget/1000);  }
+
+
+  public void setPaused(boolean paused)
+  // a paused scheduler grows nothing; see growGeneration()
+  {  isPaused = paused;  }
+
+
+  public void growGeneration()
+  /* One whole generation, grown now by the calling thread, including
+     the limbs added during it. Only for a paused scheduler, whose
+     trees aren't being grown by processStimulus() as well. */
+  {
+    for (int i=0; i < populations.size(); i++)
+      ((TreePopulation) populations.get(i)).applyRulesToLimbs();
+  }  // end of growGeneration()
+
+
+  public void initialize()
+  {  wakeupOn( everyFrame );  }
+
+
+  public void processStimulus( Enumeration criteria )
+  { // ignore criteria
+    if (isPaused) {    // the trees are grown by growGeneration()
+      wakeupOn( everyFrame );
+      return;
+    }
+    long start = System.nanoTime();
+    if (!Metrics.isOn())
+      tick(start);
+    else {
+      long allocStart = Metrics.getThreadAllocatedBytes();
+      limbsGrown = 0;
+      tick(start);
+      TICK_TIME.record(System.nanoTime() - start);
+      TICK_LIMBS.record(limbsGrown);
+      if (allocStart != -1)
+        TICK_ALLOC.record(Metrics.getThreadAllocatedBytes() - allocStart);
+    }
+    wakeupOn( everyFrame );
+  } // end of processStimulus()
+
+
+  private void tick(long start)
+  {
+    if (!inGeneration && (start - genDue >= 0))
+      startGeneration(start);
+    if (inGeneration)
+      growSlice(start);
+  }  // end of tick()
+
+
+
+  private void startGeneration(long now)
+  {
+    if (now - genDue > TIME_DELAY*1000000L)   // too far behind to catch up
+      genDue = now;
+    inGeneration = true;
+    popIdx = 0;
+    limbIdx = 0;
+  }  // end of startGeneration()
+
+
+  private void growSlice(long start)
+  // grow limbs until the generation is finished, or the frame's budget is used
+  {
+    while (popIdx < populations.size()) {
+      TreePopulation pop = (TreePopulation) populations.get(popIdx);
+      int numLimbs = pop.getNumLimbs();
+      if (limbIdx >= numLimbs) {    // finished this population
+        popIdx++;
+        limbIdx = 0;
+        continue;
+      }
+      long left = budget - (System.nanoTime() - start);
+      if (left <= 0)
+        return;    // carry on in the next frame
+      int batch = (int) Math.max(MIN_BATCH, Math.min(MAX_BATCH, left/limbTime));
+      int end = Math.min(limbIdx + batch, numLimbs);
+      long t0 = System.nanoTime();
+      pop.growLimbs(limbIdx, end);
+      long perLimb = (System.nanoTime() - t0)/(end - limbIdx);
+      limbTime = Math.max(1, (3*limbTime + perLimb)/4);   // a running average
+      limbsGrown += end - limbIdx;
+      limbIdx = end;
+    }
+    finishGeneration();
+  }  // end of growSlice()
+
+
+  private void finishGeneration()
+  {
+    inGeneration = false;
+    genDue += TIME_DELAY*1000000L;
+    boolean behind = (System.nanoTime() - genDue >= 0);
+    if (behind != isBehind) {
+      if (behind)
+        System.out.println("Tree growth is falling behind; budget: " +
+                                     getBudget() + " microsecs/frame");
+      else
+        System.out.println("Tree growth has caught up");
+      isBehind = behind;
+    }
+  }  // end of finishGeneration()
+
+
+
+  // ------------------------ progress ---------------------------
+
+
+  public long getLagMillis()
+  /* How late the current generation is: the time since it should
+     have finished (0 if it is on time, or there isn't one). */
+  {
+    if (!inGeneration)
+      return 0;
+    long late = System.nanoTime() - (genDue + TIME_DELAY*1000000L);
+    return (late > 0) ? late/1000000 : 0;
+  }  // end of getLagMillis()
+
+
+  public int getNumFrozen()
+  // the number of trees frozen in all the populations
+  {
+    int frozen = 0;
+    for (int i=0; i < populations.size(); i++)
+      frozen += ((TreePopulation) populations.get(i)).getNumFrozen();
+    return frozen;
+  }  // end of getNumFrozen()
+
+
+  public int getPendingLimbs()
+  // the number of limbs still to be grown in the current generation
+  {
+    if (!inGeneration)
+      return 0;
+    int pending = 0;
+    for (int i=popIdx; i < populations.size(); i++)
+      pending += ((TreePopulation) populations.get(i)).getNumLimbs();
+    return pending - limbIdx;
+  }  // end of getPendingLimbs()
+
+}  // end of GrowthScheduler class
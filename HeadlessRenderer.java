@@ -0,0 +1,170 @@
+// HeadlessRenderer.java
+
+/* HeadlessRenderer draws the fractal landscape without a window, for
+   benchmarking, and for checking that a change hasn't altered what
+   is drawn. It is used by FractalLand3D's --headless option.
+
+   The scene is built by WrapFractalLand3D as usual (never in
+   progressive mode), but is drawn on an offscreen Canvas3D. The
+   viewpoint is moved around a fixed circular path, centred on the
+   landscape's starting point, at the user's height above the floor
+   (as KeyBehavior places it), facing along the path.
+
+   The scene is moved on between frames by this class, not by the
+   clock, so two runs with the same flatness and seed draw the same
+   frames. Before each frame, the Landscape is updated at the viewer's
+   position and the chunks it asks for are waited for; every GROW_EVERY
+   frames the (paused) GrowthScheduler grows the trees a generation;
+   and the impostors asked for by newly frozen trees are waited for,
+   and given to their trees.
+
+   Each frame is drawn and waited for, and the time taken recorded
+   (not including the updates before it).
+   The first WARM_UP frames aren't counted, since they include
+   the textures and geometry being sent to the graphics card.
+   At the end, the p50, p95, and p99 frame times are printed, and
+   all the counted times are written to OUT_DIR/frame-times.txt,
+   one per line in ms.
+
+   Every IMAGE_EVERY frames, the frame is saved as a PNG in OUT_DIR
+   (e.g. headless/frame0050.png), so the images from two builds can
+   be diffed.
+
+   An offscreen Canvas3D still needs an OpenGL context, so there must
+   be a display; on a machine without one, run it under Xvfb, using
+   Mesa's software renderer (llvmpipe):
+      xvfb-run -s "-screen 0 1024x768x24" java FractalLand3D --headless 4 42
+*/
+
+import java.io.*;
+import java.util.Arrays;
+import javax.imageio.ImageIO;
+import javax.media.j3d.*;
+import javax.vecmath.*;
+
+
+public class HeadlessRenderer
+{
+  private static final int SIZE = 512;          // width and height of the images
+  private static final int NUM_FRAMES = 300;    // counted frames
+  private static final int WARM_UP = 30;        // frames drawn before counting
+  private static final int IMAGE_EVERY = 50;    // frames between saved images
+  private static final int GROW_EVERY = 30;     // frames between tree generations
+  private static final String OUT_DIR = "headless";
+
+  private static final double PATH_RADIUS = 20.0;
+  private static final double USER_HEIGHT = 1.0;   // as in KeyBehavior
+
+
+  public static boolean run(double flatness, long seed)
+  /* Draw the frames, and report their times. Returns false if
+     the offscreen canvas couldn't be made, or drawing failed. */
+  {
+    Canvas3D canvas;
+    try {
+      canvas = OffScreenCanvas.make(SIZE, false);
+    }
+    catch (Throwable e)    // no display, or no OpenGL (see OffScreenCanvas)
+    { System.out.println("Could not make an offscreen canvas: " + e);
+      System.out.println("A display is needed (e.g. run under xvfb-run)");
+      return false;
+    }
+
+    WrapFractalLand3D w3d = new WrapFractalLand3D(flatness, seed, false, canvas);
+    Landscape land = w3d.getLand();
+    TransformGroup viewerTG = w3d.getViewerTG();
+    GrowthScheduler scheduler = w3d.getScheduler();
+    ImpostorRenderer impostors = w3d.getImpostors();
+    new File(OUT_DIR).mkdirs();
+
+    long times[] = new long[NUM_FRAMES];    // ns
+    Transform3D t3d = new Transform3D();
+    double height = land.getOriginVec().y;
+    try {
+      for (int i=0; i < WARM_UP + NUM_FRAMES; i++) {
+        height = setViewer(i, land, viewerTG, t3d, height);
+        if (i % GROW_EVERY == 0)
+          scheduler.growGeneration();
+        impostors.finishAll();
+
+        long start = System.nanoTime();
+        canvas.renderOffScreenBuffer();
+        canvas.waitForOffScreenRendering();
+        long frameTime = System.nanoTime() - start;
+
+        int frame = i - WARM_UP;
+        if (frame >= 0) {
+          times[frame] = frameTime;
+          if (frame % IMAGE_EVERY == 0)
+            saveImage(canvas, frame);
+        }
+      }
+    }
+    catch (Throwable e)
+    { System.out.println("Headless rendering failed: " + e);
+      return false;
+    }
+
+    reportTimes(times);
+    return true;
+  }  // end of run()
+
+
+  private static double setViewer(int i, Landscape land, TransformGroup viewerTG,
+                                  Transform3D t3d, double height)
+  /* Place the viewer at its position on the path for frame i, facing
+     along the path, with the terrain around it built, and return the
+     floor height there. */
+  {
+    double angle = (2*Math.PI * i)/(WARM_UP + NUM_FRAMES);
+    Vector3d origin = land.getOriginVec();
+    double x = origin.x + PATH_RADIUS*Math.sin(angle);
+    double z = origin.z + PATH_RADIUS*Math.cos(angle);
+    land.updateAndWait(x, z);
+    height = land.getLandHeight(x, z, height);
+
+    t3d.rotY(angle - Math.PI/2);    // so -z turns to the path's direction
+    t3d.setTranslation( new Vector3d(x, height + USER_HEIGHT, z) );
+    viewerTG.setTransform(t3d);
+    return height;
+  }  // end of setViewer()
+
+
+  private static void saveImage(Canvas3D canvas, int frame)
+  {
+    String num = Integer.toString(frame);
+    while (num.length() < 4)
+      num = "0" + num;
+    File f = new File(OUT_DIR, "frame" + num + ".png");
+    try {
+      ImageIO.write(canvas.getOffScreenBuffer().getImage(), "png", f);
+    }
+    catch (IOException e)
+    {  System.out.println("Could not save " + f + ": " + e);  }
+  }  // end of saveImage()
+
+
+
+  private static void reportTimes(long times[])
+  // print the percentiles, and save all the times
+  {
+    File f = new File(OUT_DIR, "frame-times.txt");
+    try {
+      PrintWriter out = new PrintWriter( new FileWriter(f));
+      for (int i=0; i < times.length; i++)
+        out.println(times[i]/1000000.0);
+      out.close();
+    }
+    catch (IOException e)
+    {  System.out.println("Could not save " + f + ": " + e);  }
+
+    long sorted[] = times.clone();
+    Arrays.sort(sorted);
+    System.out.println("Frame times over " + sorted.length + " frames (ms): " +
+                       "p50 " + Metrics.percentile(sorted, 50)/1000000.0 +
+                       ", p95 " + Metrics.percentile(sorted, 95)/1000000.0 +
+                       ", p99 " + Metrics.percentile(sorted, 99)/1000000.0 +
+                       ", max " + sorted[sorted.length-1]/1000000.0);
+  }  // end of reportTimes()
+
+}  // end of HeadlessRenderer class
@@ -0,0 +1,137 @@
+// HeightBench.java
+
+/* A microbenchmark for the floor height queries made by KeyBehavior.
+
+   It builds a Landscape, and times Landscape.getLandHeight() (which
+   interpolates the chunk heightfields) against pickLandHeight()
+   (the old picking version) over the same random (x,z) points.
+   It also reports how far apart their answers are, and how often
+   picking missed and fell back to the previous height.
+
+   Picking only works on a live scene graph, so the floor is added
+   to a VirtualUniverse (no Canvas3D is needed). That requires the
+   Java 3D native libraries; without them only getLandHeight() is timed.
+
+   Usage: java HeightBench [<numQueries>]
+*/
+
+public class HeightBench
+{
+  private static final int DEF_QUERIES = 20000;
+  private static final int ROUNDS = 5;      // best of ROUNDS timings is reported
+
+  private static final double FLATNESS = 2.0;
+  private static final long SEED = 1L;
+
+  private static final double MIN_COORD = -32;  // the chunks built at startup
+  private static final double MAX_COORD = 64;
+
+  private Landscape land;
+  private double xs[], zs[];
+
+
+  public HeightBench(int numQueries)
+  {
+    land = new Landscape(FLATNESS, SEED);
+    makeQueries(numQueries);
+
+    double heights[] = new double[numQueries];
+    long heightTime = timeQueries(false, heights);
+    report("getLandHeight()", heightTime, numQueries);
+
+    if (!makeLive()) {
+      System.out.println("No Java 3D natives, so picking can't be timed");
+      return;
+    }
+    double picks[] = new double[numQueries];
+    long pickTime = timeQueries(true, picks);
+    report("pickLandHeight()", pickTime, numQueries);
+    System.out.println("Speedup: " + ((double) pickTime / heightTime) + "x");
+    compare(heights, picks);
+  }  // end of HeightBench()
+
+
+  private void makeQueries(int numQueries)
+  // random (x,z) points on the floor
+  {
+    xs = new double[numQueries];
+    zs = new double[numQueries];
+    for (int i=0; i < numQueries; i++) {
+      xs[i] = WorldRandom.range(SEED, i, 0, MIN_COORD, MAX_COORD);
+      zs[i] = WorldRandom.range(SEED, i, 1, MIN_COORD, MAX_COORD);
+    }
+  }  // end of makeQueries()
+
+
+  private boolean makeLive()
+  // add the floor to a universe, so it can be picked
+  {
+    try {
+      javax.media.j3d.VirtualUniverse vu = new javax.media.j3d.VirtualUniverse();
+      javax.media.j3d.Locale locale = new javax.media.j3d.Locale(vu);
+      locale.addBranchGraph( land.getLandBG() );
+      return true;
+    }
+    catch (Throwable t) {     // usually an UnsatisfiedLinkError
+      return false;
+    }
+  }  // end of makeLive()
+
+
+  private long timeQueries(boolean usePicking, double results[])
+  // return the best time (in ns) over ROUNDS runs of all the queries
+  {
+    long best = Long.MAX_VALUE;
+    for (int r=0; r < ROUNDS; r++) {
+      long start = System.nanoTime();
+      for (int i=0; i < xs.length; i++) {
+        if (usePicking)
+          results[i] = land.pickLandHeight(xs[i], zs[i], Double.NaN);
+        else
+          results[i] = land.getLandHeight(xs[i], zs[i], Double.NaN);
+      }
+      long time = System.nanoTime() - start;
+      if (time < best)
+        best = time;
+    }
+    return best;
+  }  // end of timeQueries()
+
+
+  private void report(String name, long time, int numQueries)
+  {  System.out.println(name + ": " + (time / numQueries) + " ns per query");  }
+
+
+  private void compare(double heights[], double picks[])
+  // maximum difference between the two, ignoring picking misses
+  {
+    int misses = 0;
+    double maxDiff = 0;
+    for (int i=0; i < heights.length; i++) {
+      if (Double.isNaN(picks[i]))
+        misses++;
+      else
+        maxDiff = Math.max(maxDiff, Math.abs(heights[i] - picks[i]));
+    }
+    System.out.println("Picking misses: " + misses + "/" + picks.length);
+    System.out.println("Max height difference: " + maxDiff);
+  }  // end of compare()
+
+
+  // ---------------------- main() -----------------------
+
+  public static void main(String args[])
+  {
+    int numQueries = DEF_QUERIES;
+    if (args.length == 1) {
+      try {
+        numQueries = Integer.parseInt(args[0]);
+      }
+      catch (NumberFormatException e)
+      {  System.out.println("Incorrect format for numQueries; using " + DEF_QUERIES);  }
+    }
+    new HeightBench(numQueries);
+    System.exit(0);   // stop the Java 3D threads
+  } // end of main()
+
+}  // end of HeightBench class
@@ -17,6 +17,12 @@
    must be explicitly called to change the displayed picture. There
    is no default animation.
 
+   The images are not loaded into a texture of the screen's own.
+   All the images of a series are packed into one LeafAtlas, shared
+   by every screen showing that series, and a screen shows an image
+   by switching to the atlas' Appearance for it. So changing the
+   picture doesn't reload a texture.
+
    A version of ImageCsSeries with default animation can be found in 
    FPShooter3D
 */
@@ -33,14 +39,13 @@ public class ImageCsSeries extends OrientedShape3D
 {
   private static final int NUM_VERTS = 4;
 
-  private ImageComponent2D[] ims;  // the sequence of images
+  private LeafAtlas atlas;   // holds the sequence of images
   private int imIndex, numImages;
-  private Texture2D texture;
 
 
   public ImageCsSeries(float zCoord, float screenSize, ImageComponent2D[] ims) 
   { 
-    this.ims = ims;
+    atlas = LeafAtlas.forImages(ims);
     imIndex = 0;
     numImages = ims.length;
 
@@ -49,7 +54,8 @@ public class ImageCsSeries extends OrientedShape3D
     setRotationPoint(0.0f, 0.0f, zCoord);
 
     createGeometry(screenSize);
-    createAppearance();
+    setCapability(Shape3D.ALLOW_APPEARANCE_WRITE);   // the image can change
+    setAppearance( atlas.getAppearance(0) );
   } // end of ImageCsSeries()
 
 
@@ -87,43 +93,16 @@ public class ImageCsSeries extends OrientedShape3D
   }  // end of createGeometry()
 
 
-  private void createAppearance()
-  {                       
-    Appearance app = new Appearance();
-
-    // blended transparency so texture can be irregular
-    TransparencyAttributes tra = new TransparencyAttributes();
-    tra.setTransparencyMode( TransparencyAttributes.BLENDED );
-    app.setTransparencyAttributes( tra );
-
-    // Create a two dimensional texture with magnification filtering
-    // Set the texture from the first loaded image
-    texture = new Texture2D(Texture2D.BASE_LEVEL, Texture.RGBA,
-                       ims[0].getWidth(), ims[0].getHeight());
-    texture.setMagFilter(Texture2D.BASE_LEVEL_LINEAR);   // NICEST
-    texture.setImage(0, ims[0]);
-    texture.setCapability(Texture.ALLOW_IMAGE_WRITE);   // texture can change
-    app.setTexture(texture);
-   
-    setAppearance(app);
-  }  // end of createAppearance()
-
-
   public void showImage(int i)
   // show the i th image in the sequence
   { 
-    if (i < 0) {
-      texture.setImage(0, ims[0]);
+    if (i < 0)
       imIndex = 0;
-    }
-    else if (i >= numImages) {
-      texture.setImage(0, ims[numImages-1]);
+    else if (i >= numImages)
       imIndex = numImages-1;
-    }
-    else {
-      texture.setImage(0, ims[i]);
+    else
       imIndex = i;
-    }
+    setAppearance( atlas.getAppearance(imIndex) );
   }  // end of showImage()
 
 
@@ -131,7 +110,7 @@ public class ImageCsSeries extends OrientedShape3D
   // show the next image in the sequence
   { if (imIndex < numImages-1) {
       imIndex++;
-      texture.setImage(0, ims[imIndex]);
+      setAppearance( atlas.getAppearance(imIndex) );
     }
   }
 
@@ -139,7 +118,7 @@ public class ImageCsSeries extends OrientedShape3D
   // show the previous image in the sequence
   { if (imIndex > 0) {
       imIndex--;
-      texture.setImage(0, ims[imIndex]);
+      setAppearance( atlas.getAppearance(imIndex) );
     }
   }
 
@@ -0,0 +1,254 @@
+// ImageDiskCache.java
+
+/* ImageDiskCache keeps the decoded images which TextureCache makes with
+   TextureLoader in binary files under cache/, so later runs don't
+   have to decode the GIFs and JPGs, or generate the mipmaps, again.
+
+   There is a cache file for each image file loaded as an image
+   (by loadImage(), as TextureLoader.getImage() makes it), and for each
+   image file and set of TextureLoader flags loaded as a texture (by
+   loadTexture(), as TextureLoader.getTexture() makes it, scaled to a
+   power of 2 on each side). It holds the image's levels (just one,
+   unless the texture is mipmapped) as raw 4-byte ABGR pixels:
+
+     int MAGIC, int VERSION
+     long source file length, long source file last modified time
+     int texture format (Texture.RGB or RGBA), int number of levels
+     for each level:  int width, int height, width*height*4 bytes
+
+   A cache file's header is checked with an ordinary read, and only a
+   file which is up to date is then read by memory-mapping it (a mapped
+   file can't be replaced on Windows until the buffer is garbage
+   collected, so a stale one is never mapped). Each level's pixels are
+   copied straight from the mapped file into a TYPE_4BYTE_ABGR
+   BufferedImage, which the ImageComponent2D uses by reference, so
+   there's no decoding, and no further copy by Java 3D.
+
+   The cache file is written the first time an image is loaded, or
+   ahead of time by running this class with the image file names:
+      java ImageDiskCache images/leaf0.gif ... -mipmap images/grass.gif ...
+   It is made again if its source image changes size or date. It is
+   written to a temporary file of its own first, and then renamed, so
+   two threads caching the same image don't write over each other's
+   half-finished files. If a cache file can't be read or written, a
+   message is printed, and the image is just loaded from its source.
+*/
+
+import java.awt.image.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import javax.media.j3d.*;
+import com.sun.j3d.utils.image.TextureLoader;
+
+
+public class ImageDiskCache
+{
+  private static final String CACHE_DIR = "cache";
+  private static final int MAGIC = 0x464c4943;   // "FLIC"
+  private static final int VERSION = 2;
+  private static final int HEADER_SIZE = 24;   // bytes, up to the texture format
+
+
+  public static ImageComponent2D loadImage(String fnm)
+  // the image in fnm, at its own size, or null if it can't be loaded
+  {
+    ImageComponent2D ims[] = load(fnm, 0, false);
+    return (ims == null) ? null : ims[0];
+  }  // end of loadImage()
+
+
+  public static ImageComponent2D[] loadTexture(String fnm, int flags)
+  /* The levels of the texture which a TextureLoader makes from fnm
+     with flags, or null if it can't be loaded. The format of the
+     texture is stored with them, and returned by getFormat(). */
+  {  return load(fnm, flags, true);  }
+
+
+  private static ImageComponent2D[] load(String fnm, int flags, boolean asTexture)
+  /* From the cache file if it is up to date, else from fnm (and then
+     the cache file is written). */
+  {
+    File src = new File(fnm);
+    if (!src.exists())
+      return null;
+    File cacheFile = cacheFile(fnm, flags, asTexture);
+    if (cacheFile.exists()) {
+      ImageComponent2D ims[] = read(cacheFile, src);
+      if (ims != null)
+        return ims;
+    }
+
+    ImageComponent2D ims[] = decode(fnm, flags, asTexture);
+    if (ims != null)
+      write(cacheFile, src, ims);
+    return ims;
+  }  // end of load()
+
+
+  public static int getFormat(ImageComponent2D ims[])
+  // the texture format for the levels
+  {  return (ims[0].getFormat() == ImageComponent.FORMAT_RGB) ? Texture.RGB : Texture.RGBA;  }
+
+
+  private static File cacheFile(String fnm, int flags, boolean asTexture)
+  {
+    String kind = asTexture ? ("texture" + flags) : "image";
+    return new File(CACHE_DIR, fnm.replace('/', '_').replace('\\', '_') +
+                               "." + kind + ".bin");
+  }  // end of cacheFile()
+
+
+  private static ImageComponent2D[] decode(String fnm, int flags, boolean asTexture)
+  // load the image levels with a TextureLoader, as 4-byte ABGR images
+  {
+    TextureLoader loader = new TextureLoader(fnm, flags, null);
+    ImageComponent images[];
+    int format;
+    if (asTexture) {
+      Texture texture = loader.getTexture();
+      if (texture == null)
+        return null;
+      images = texture.getImages();
+      format = texture.getFormat();
+    }
+    else {
+      ImageComponent2D im = loader.getImage();
+      if (im == null)
+        return null;
+      images = new ImageComponent[] { im };
+      format = (im.getFormat() == ImageComponent.FORMAT_RGB) ? Texture.RGB : Texture.RGBA;
+    }
+
+    ImageComponent2D ims[] = new ImageComponent2D[images.length];
+    for (int i=0; i < images.length; i++) {
+      BufferedImage im = ((ImageComponent2D) images[i]).getImage();
+      BufferedImage abgr = new BufferedImage(im.getWidth(), im.getHeight(),
+                                             BufferedImage.TYPE_4BYTE_ABGR);
+      abgr.getGraphics().drawImage(im, 0, 0, null);
+      ims[i] = makeComponent(abgr, format);
+    }
+    return ims;
+  }  // end of decode()
+
+
+  private static ImageComponent2D makeComponent(BufferedImage im, int format)
+  // an ImageComponent2D using im by reference
+  {
+    int imFormat = (format == Texture.RGB) ? ImageComponent.FORMAT_RGB :
+                                             ImageComponent.FORMAT_RGBA;
+    return new ImageComponent2D(imFormat, im, true, false);
+  }  // end of makeComponent()
+
+
+
+  // ------------------------ the cache file ---------------------------
+
+
+  private static ImageComponent2D[] read(File cacheFile, File src)
+  // the levels in cacheFile, or null if it is out of date or can't be read
+  {
+    try {
+      if (!isCurrent(cacheFile, src))
+        return null;    // from another version, or the image has changed
+      FileInputStream fis = new FileInputStream(cacheFile);
+      try {
+        FileChannel ch = fis.getChannel();
+        MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY,
+                                      HEADER_SIZE, ch.size() - HEADER_SIZE);
+        int format = buf.getInt();
+        ImageComponent2D ims[] = new ImageComponent2D[ buf.getInt() ];
+        for (int i=0; i < ims.length; i++) {
+          int w = buf.getInt();
+          int h = buf.getInt();
+          BufferedImage im = new BufferedImage(w, h, BufferedImage.TYPE_4BYTE_ABGR);
+          buf.get( ((DataBufferByte) im.getRaster().getDataBuffer()).getData() );
+          ims[i] = makeComponent(im, format);
+        }
+        return ims;
+      }
+      finally {
+        fis.close();
+      }
+    }
+    catch (Exception e)   // an I/O error, or a truncated file
+    { System.out.println("Could not read image cache " + cacheFile + ": " + e);
+      return null;
+    }
+  }  // end of read()
+
+
+  private static boolean isCurrent(File cacheFile, File src) throws IOException
+  // is cacheFile's header for this VERSION, and the src as it is now?
+  {
+    DataInputStream in = new DataInputStream( new FileInputStream(cacheFile));
+    try {
+      return (in.readInt() == MAGIC) && (in.readInt() == VERSION) &&
+             (in.readLong() == src.length()) && (in.readLong() == src.lastModified());
+    }
+    finally {
+      in.close();
+    }
+  }  // end of isCurrent()
+
+
+  private static void write(File cacheFile, File src, ImageComponent2D ims[])
+  /* Save the levels to cacheFile. They are written to a temporary file
+     first, so a run which is stopped part way doesn't leave a broken
+     cache file. */
+  {
+    File tmpFile = null;
+    try {
+      cacheFile.getParentFile().mkdirs();
+      tmpFile = File.createTempFile("image", ".tmp", cacheFile.getParentFile());
+      DataOutputStream out = new DataOutputStream( new BufferedOutputStream(
+                                    new FileOutputStream(tmpFile)));
+      try {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(src.length());
+        out.writeLong(src.lastModified());
+        out.writeInt( getFormat(ims) );
+        out.writeInt(ims.length);
+        for (int i=0; i < ims.length; i++) {
+          BufferedImage im = ims[i].getImage();
+          out.writeInt(im.getWidth());
+          out.writeInt(im.getHeight());
+          out.write( ((DataBufferByte) im.getRaster().getDataBuffer()).getData() );
+        }
+      }
+      finally {
+        out.close();
+      }
+      cacheFile.delete();
+      if (!tmpFile.renameTo(cacheFile))
+        throw new IOException("cannot rename " + tmpFile);
+    }
+    catch (IOException e)
+    { System.out.println("Could not write image cache " + cacheFile + ": " + e);
+      if (tmpFile != null)
+        tmpFile.delete();
+    }
+  }  // end of write()
+
+
+
+  public static void main(String args[])
+  /* Make the cache files for the named images, as TextureCache.getImage()
+     loads them; the ones after "-mipmap" are cached as getTexture()
+     loads the floor textures. */
+  {
+    boolean mipmap = false;
+    for (int i=0; i < args.length; i++) {
+      if (args[i].equals("-mipmap"))
+        mipmap = true;
+      else {
+        Object loaded = mipmap ? (Object) loadTexture(args[i], TextureLoader.GENERATE_MIPMAP) :
+                                 (Object) loadImage(args[i]);
+        if (loaded == null)
+          System.out.println("Could not load " + args[i]);
+      }
+    }
+  }  // end of main()
+
+}  // end of ImageDiskCache class
@@ -0,0 +1,266 @@
+// ImpostorRenderer.java
+
+/* ImpostorRenderer makes the impostors for FrozenTrees: a picture
+   of each tree, which the tree shows on a single quad when it is
+   further than the impostor distance from the viewer (see FrozenTree).
+
+   The pictures are drawn by Java 3D, with an offscreen Canvas3D in
+   a VirtualUniverse of its own, which holds only a light, a background,
+   and the tree being drawn. Rendering offscreen works on a software
+   OpenGL as well, so it doesn't need a display card.
+
+   The tree is looked at from the side, along the -z axis, with a
+   parallel projection which just fits its extent (so the picture
+   lines up with the impostor quad). The background is drawn in
+   KEY_COLOUR, and those pixels are made transparent afterwards.
+
+   As with Landscape's chunk builders, the drawing is done by a
+   background (daemon) thread, and the finished pictures are queued.
+   This Behavior wakes up every TIME_DELAY ms, and gives the queued
+   pictures to their trees, so the live scene is only changed on the
+   behaviour thread. HeadlessRenderer calls finishAll() instead, which
+   waits for the pictures that have been asked for, and gives them to
+   their trees straight away, so what is drawn doesn't depend on how
+   fast the renderer thread is.
+
+   The offscreen universe is made when the first picture is needed.
+   If it can't be made (e.g. there is no OpenGL, or the JVM is headless),
+   a message is printed, and the trees are always drawn in full.
+
+   Java 3D objects shouldn't be shared between universes, so the
+   tree's copy has its own nodes and Appearance, and a copy of its last
+   leaf image; only the vertex arrays are shared.
+*/
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.media.j3d.*;
+import javax.vecmath.*;
+
+
+public class ImpostorRenderer extends Behavior
+{
+  private final static int TIME_DELAY = 250;  //ms
+  private final static int KEY_COLOUR = 0xff00ff;   // magenta background
+  private final static int KEY_TOLERANCE = 24;      // per colour component
+  private final static double VIEW_GAP = 10.0;   // between the camera and the tree
+  private final static double BOUNDSIZE = 1000.0;
+
+  private WakeupCondition timeOut;
+  private int texSize;
+  private double impostorDist;
+
+  private ExecutorService renderer;
+  private ConcurrentLinkedQueue finished;   // of Object[] {FrozenTree, ImageComponent2D}
+  private volatile boolean failed = false;
+  private AtomicInteger numPending = new AtomicInteger();   // requests not yet drawn
+
+  // the offscreen universe, made and used by the renderer thread
+  private Canvas3D canvas = null;
+  private View view;
+  private BranchGroup treesBG;      // the tree being drawn goes under here
+  private Appearance treeApp;
+  private HashMap leafCopies;       // leaf image arrays --> their copies
+  private Transform3D viewTrans = new Transform3D();
+  private Transform3D projTrans = new Transform3D();
+
+
+  public ImpostorRenderer(int texSize, double impostorDist)
+  /* The pictures are texSize pixels square (a power of 2), and the
+     trees show them when they are further away than impostorDist. */
+  {
+    this.texSize = texSize;
+    this.impostorDist = impostorDist;
+    timeOut = new WakeupOnElapsedTime(TIME_DELAY);
+    finished = new ConcurrentLinkedQueue();
+    leafCopies = new HashMap();
+    renderer = Executors.newSingleThreadExecutor(
+                        new DaemonThreads("impostor renderer", Thread.MIN_PRIORITY));
+  }  // end of ImpostorRenderer()
+
+
+  public void request(final FrozenTree tree)
+  // draw tree's picture in the background; processStimulus() will give it to the tree
+  {
+    if (failed)
+      return;
+    numPending.incrementAndGet();
+    renderer.execute( new Runnable() {
+      public void run()
+      {
+        ImageComponent2D im = render(tree);
+        if (im != null)
+          finished.add( new Object[] {tree, im} );
+        numPending.decrementAndGet();
+      }
+    });
+  }  // end of request()
+
+
+  public void finishAll()
+  /* Wait until every picture asked for has been drawn, then give them
+     to their trees. Not to be called on the behaviour thread. */
+  {
+    while (numPending.get() > 0) {
+      try {
+        Thread.sleep(2);
+      }
+      catch (InterruptedException e)
+      { Thread.currentThread().interrupt();
+        return;
+      }
+    }
+    giveFinished();
+  }  // end of finishAll()
+
+
+  public void initialize()
+  {  wakeupOn( timeOut );  }
+
+
+  public void processStimulus( Enumeration criteria )
+  { // ignore criteria
+    giveFinished();
+    wakeupOn( timeOut );
+  } // end of processStimulus()
+
+
+  private void giveFinished()
+  // give the queued pictures to their trees
+  {
+    Object[] done;
+    while ((done = (Object[]) finished.poll()) != null)
+      ((FrozenTree) done[0]).setImpostor( (ImageComponent2D) done[1], impostorDist);
+  }  // end of giveFinished()
+
+
+
+  // ------------------- the renderer thread -----------------------
+
+
+  private ImageComponent2D render(FrozenTree tree)
+  // draw the tree, and return the picture, or null if it can't be drawn
+  {
+    if (failed)
+      return null;
+    try {
+      if (canvas == null)
+        makeUniverse();
+
+      BranchGroup sceneBG = tree.makeImpostorScene(treeApp, copyLeaves(tree.getLeafImages()));
+      setView(tree);
+      treesBG.addChild(sceneBG);
+      canvas.renderOffScreenBuffer();
+      canvas.waitForOffScreenRendering();
+      sceneBG.detach();
+
+      return new ImageComponent2D(ImageComponent.FORMAT_RGBA,
+                                  keyOut( canvas.getOffScreenBuffer().getImage() ));
+    }
+    catch (Throwable e)    // no display, or no OpenGL (see OffScreenCanvas)
+    { System.out.println("Tree impostors are off: " + e);
+      failed = true;
+      return null;
+    }
+  }  // end of render()
+
+
+  private void makeUniverse()
+  /* An offscreen Canvas3D, with a view that is set by setView(),
+     looking at treesBG, with the same light as the main scene. */
+  {
+    Canvas3D c3d = OffScreenCanvas.make(texSize, true);
+
+    // the view is given directly as a viewing and a projection transform
+    view = new View();
+    view.setPhysicalBody( new PhysicalBody() );
+    view.setPhysicalEnvironment( new PhysicalEnvironment() );
+    view.setCompatibilityModeEnable(true);
+    view.addCanvas3D(c3d);
+    ViewPlatform vp = new ViewPlatform();
+    view.attachViewPlatform(vp);
+
+    BoundingSphere bounds = new BoundingSphere(new Point3d(), BOUNDSIZE);
+    BranchGroup sceneBG = new BranchGroup();
+    sceneBG.addChild(vp);
+
+    Background back = new Background();
+    back.setColor( new Color3f( new Color(KEY_COLOUR)) );
+    back.setApplicationBounds(bounds);
+    sceneBG.addChild(back);
+
+    DirectionalLight light = new DirectionalLight(new Color3f(1.0f, 1.0f, 1.0f),
+                                     new Vector3f(1.0f, -1.0f, -0.8f));
+    light.setInfluencingBounds(bounds);
+    sceneBG.addChild(light);
+
+    treesBG = new BranchGroup();
+    treesBG.setCapability(Group.ALLOW_CHILDREN_EXTEND);
+    treesBG.setCapability(Group.ALLOW_CHILDREN_WRITE);
+    sceneBG.addChild(treesBG);
+
+    Locale locale = new Locale( new VirtualUniverse() );
+    locale.addBranchGraph(sceneBG);
+
+    treeApp = TreeLimb.makeAppearance(TreeLimb.green);
+    canvas = c3d;
+  }  // end of makeUniverse()
+
+
+  private void setView(FrozenTree tree)
+  /* Look along the -z axis at the tree, with the picture covering
+     the tree's reach across, and its height range up. */
+  {
+    double reach = tree.getReach();
+    double dist = reach + VIEW_GAP;
+    viewTrans.lookAt( new Point3d(0, 0, dist), new Point3d(0, 0, 0),
+                      new Vector3d(0, 1, 0));
+    view.setVpcToEc(viewTrans);
+
+    projTrans.ortho(-reach, reach, tree.getMinY(), tree.getMaxY(),
+                    dist - reach - 1, dist + reach + 1);
+    view.setLeftProjection(projTrans);
+  }  // end of setView()
+
+
+  private ImageComponent2D[] copyLeaves(ImageComponent2D leafIms[])
+  // a copy of the last leaf image, made once for each series
+  {
+    ImageComponent2D copy[] = (ImageComponent2D[]) leafCopies.get(leafIms);
+    if (copy == null) {
+      ImageComponent2D last = leafIms[leafIms.length-1];
+      copy = new ImageComponent2D[] {
+                new ImageComponent2D(last.getFormat(), last.getImage()) };
+      leafCopies.put(leafIms, copy);
+    }
+    return copy;
+  }  // end of copyLeaves()
+
+
+  private BufferedImage keyOut(BufferedImage im)
+  // a copy of im, with the background coloured pixels made transparent
+  {
+    int w = im.getWidth();
+    int h = im.getHeight();
+    BufferedImage keyed = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+    for (int y=0; y < h; y++)
+      for (int x=0; x < w; x++) {
+        int rgb = im.getRGB(x, y) & 0xffffff;
+        keyed.setRGB(x, y, isKeyColour(rgb) ? 0 : (0xff000000 | rgb));
+      }
+    return keyed;
+  }  // end of keyOut()
+
+
+  private boolean isKeyColour(int rgb)
+  {
+    return (Math.abs(((rgb >> 16) & 0xff) - ((KEY_COLOUR >> 16) & 0xff)) <= KEY_TOLERANCE) &&
+           (Math.abs(((rgb >> 8) & 0xff) - ((KEY_COLOUR >> 8) & 0xff)) <= KEY_TOLERANCE) &&
+           (Math.abs((rgb & 0xff) - (KEY_COLOUR & 0xff)) <= KEY_TOLERANCE);
+  }  // end of isKeyColour()
+
+}  // end of ImpostorRenderer class
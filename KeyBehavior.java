@@ -11,6 +11,16 @@
    the new position of the (x,z) coords, then asks the Landscape
    object if it is on the floor. If it is then Landscape is used
    to find the y-component (the floor height at that point).
+
+   Every key press goes through pressKey(), which can also be called by
+   a KeyReplay to play back a recorded walk. If there's a KeyRecorder,
+   each press is saved to it. A KeyBehavior made with just a Landscape
+   isn't in a scene, and moves its own viewpoint transform (read with
+   getViewer()) instead of targetTG, so a walk can be replayed against
+   the Landscape alone.
+
+   When the Metrics are on, the time taken by each height query is
+   recorded.
 */
 
 
@@ -31,6 +41,8 @@ public class KeyBehavior extends ViewPlatformBehavior
 
   private static final double USER_HEIGHT = 1.0;  // of head above the floor
 
+  private static final Metrics.Stat HEIGHT_TIME = Metrics.stat("keys.heightQueryNanos");
+
   // hardwired movement vectors
   private static final Vector3d FWD = new Vector3d(0,0,-MOVE_STEP);
   private static final Vector3d BACK = new Vector3d(0,0,MOVE_STEP);
@@ -52,6 +64,9 @@ public class KeyBehavior extends ViewPlatformBehavior
   private double currLandHeight;  // floor height at current position
   private int zOffset;            // used when moving up/down
 
+  private Transform3D viewerT3D = null;   // the viewpoint, when there is no targetTG
+  private KeyRecorder recorder = null;    // saves the key presses
+
   // for repeated calcs
   private Transform3D t3d = new Transform3D();
   private Transform3D toMove = new Transform3D();
@@ -69,21 +84,41 @@ public class KeyBehavior extends ViewPlatformBehavior
   } // end of KeyBehavior()
 
 
+  public KeyBehavior(Landscape ld)
+  // not in a scene; moves its own viewpoint transform
+  {
+    land = ld;
+    zOffset = 0;
+    viewerT3D = new Transform3D();
+    initViewPosition(null);
+
+    keyPress = new WakeupOnAWTEvent(KeyEvent.KEY_PRESSED);
+  } // end of KeyBehavior()
+
+
   private void initViewPosition(TransformGroup steerTG)
   // place viewpoint at (0,?,0), facing into scene
   {
-    Vector3d startPosn = land.getOriginVec();
+    Vector3d startPosn = new Vector3d( land.getOriginVec() );
     // startPosn is (0, <height of floor>, 0)
 
     currLandHeight = startPosn.y;   // store current floor height
     startPosn.y += USER_HEIGHT;     // add user's height
 
+    if (steerTG == null) {          // no scene
+      viewerT3D.setTranslation(startPosn);
+      return;
+    }
     steerTG.getTransform(t3d);      // targetTG not yet available
 	t3d.setTranslation(startPosn);  // so use steerTG
     steerTG.setTransform(t3d); 
   }  // end of initViewPosition()
 
 
+  public void setRecorder(KeyRecorder rec)
+  {  recorder = rec;  }
+
+
   public void initialize()
   {  wakeupOn( keyPress );  }
 
@@ -113,12 +148,21 @@ public class KeyBehavior extends ViewPlatformBehavior
   {
     int keyCode = eventKey.getKeyCode();
     // System.out.println(keyCode);
+    pressKey(keyCode, eventKey.isAltDown());
+  } // end of processKeyEvent()
+
+
+  public void pressKey(int keyCode, boolean isAlt)
+  // move as for a press of keyCode (with <alt> if isAlt)
+  {
+    if (recorder != null)
+      recorder.record(keyCode, isAlt);
 
-    if( eventKey.isAltDown() )    // key + <alt>
+    if( isAlt )    // key + <alt>
       altMove(keyCode);
     else
       standardMove(keyCode);
-  } // end of processKeyEvent()
+  } // end of pressKey()
 
 
   private void standardMove(int keycode)
@@ -173,8 +217,11 @@ public class KeyBehavior extends ViewPlatformBehavior
        return;
 
     // Landscape returns floor height at (x,z)
+    long start = Metrics.isOn() ? System.nanoTime() : 0;
     double floorHeight = land.getLandHeight(nextLoc.x, nextLoc.z, 
 													currLandHeight);
+    if (Metrics.isOn())
+      HEIGHT_TIME.record(System.nanoTime() - start);
     // Calculate the change from the current y-position.
     // Reset any offset upwards back to 0.
     double heightChg = floorHeight - currLandHeight -
@@ -192,7 +239,7 @@ public class KeyBehavior extends ViewPlatformBehavior
   /* Calculate the effect of the given translation to get the
      new (x,?, z) coord. Do not update the viewpoint's TG yet
   */
-  { targetTG.getTransform( t3d );
+  { getViewer( t3d );
     toMove.setTranslation(theMove);
     t3d.mul(toMove);
     t3d.get( trans );
@@ -203,10 +250,10 @@ public class KeyBehavior extends ViewPlatformBehavior
   private void doMove(Vector3d theMove)
   // move the viewpoint by theMove offset
   {
-    targetTG.getTransform(t3d);
+    getViewer(t3d);
     toMove.setTranslation(theMove);
     t3d.mul(toMove);
-    targetTG.setTransform(t3d);  // update viewpoint's TG
+    setViewer(t3d);  // update viewpoint's TG
   } // end of doMove()
 
 
@@ -215,11 +262,32 @@ public class KeyBehavior extends ViewPlatformBehavior
   private void rotateY(double radians)
   // rotate about y-axis by radians
   {
-    targetTG.getTransform(t3d);
+    getViewer(t3d);
     toRot.rotY(radians);
     t3d.mul(toRot);
-    targetTG.setTransform(t3d);
+    setViewer(t3d);
   } // end of rotateY()
 
 
+  // -------------- the viewpoint --------------------
+
+  public void getViewer(Transform3D t)
+  // copy the viewpoint's transform into t
+  {
+    if (viewerT3D != null)
+      t.set(viewerT3D);
+    else
+      targetTG.getTransform(t);
+  }  // end of getViewer()
+
+
+  private void setViewer(Transform3D t)
+  {
+    if (viewerT3D != null)
+      viewerT3D.set(t);
+    else
+      targetTG.setTransform(t);
+  }  // end of setViewer()
+
+
 }  // end of KeyBehavior class
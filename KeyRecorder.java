@@ -0,0 +1,89 @@
+// KeyRecorder.java
+
+/* A KeyRecorder saves the key presses handled by KeyBehavior to a
+   file, with the time of each one, so the same walk over the landscape
+   can be replayed later by KeyReplay (see FractalLand3D's --record
+   and --replay options).
+
+   The file starts with the world that was walked over, so the replay
+   can build the same one:
+     int MAGIC, int VERSION
+     double flatness, long seed
+   then has an entry for each key press:
+     varint  ms since the previous press (0 for the first one)
+     varint  (key code << 1) | 1 if <alt> was down
+   A varint is written 7 bits to a byte, lowest first, with the top
+   bit set in every byte but the last, so an entry is usually 2 bytes.
+
+   Each entry is flushed as it is written, since the application is
+   usually closed while the recording is still going.
+*/
+
+import java.io.*;
+
+
+public class KeyRecorder
+{
+  static final int MAGIC = 0x464c4b52;   // "FLKR"
+  static final int VERSION = 1;
+
+  private DataOutputStream out;
+  private long lastTime = -1;    // ms, of the last press written
+  private int numKeys = 0;
+
+
+  public KeyRecorder(String fnm, double flatness, long seed) throws IOException
+  {
+    out = new DataOutputStream( new BufferedOutputStream(
+                                     new FileOutputStream(fnm)));
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeDouble(flatness);
+    out.writeLong(seed);
+    out.flush();
+  }  // end of KeyRecorder()
+
+
+  public synchronized void record(int keyCode, boolean isAlt)
+  // write a key press; if the file can't be written, recording stops
+  {
+    if (out == null)
+      return;
+    long now = System.currentTimeMillis();
+    long delay = (lastTime == -1) ? 0 : Math.max(0, now - lastTime);
+    lastTime = now;
+    try {
+      writeVarint(delay);
+      writeVarint( (((long) keyCode) << 1) | (isAlt ? 1 : 0) );
+      out.flush();
+      numKeys++;
+    }
+    catch (IOException e)
+    { System.out.println("Key recording stopped after " + numKeys + " keys: " + e);
+      close();
+    }
+  }  // end of record()
+
+
+  private void writeVarint(long n) throws IOException
+  {
+    while ((n & ~0x7fL) != 0) {
+      out.writeByte( (int) ((n & 0x7f) | 0x80) );
+      n >>>= 7;
+    }
+    out.writeByte( (int) n );
+  }  // end of writeVarint()
+
+
+  public synchronized void close()
+  {
+    if (out == null)
+      return;
+    try {
+      out.close();
+    }
+    catch (IOException e) {}
+    out = null;
+  }  // end of close()
+
+}  // end of KeyRecorder class
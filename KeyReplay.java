@@ -0,0 +1,228 @@
+// KeyReplay.java
+
+/* A KeyReplay plays back a file of key presses saved by KeyRecorder,
+   through KeyBehavior's movement code, so a walk over the landscape
+   can be repeated exactly, for benchmarking and regression testing.
+
+   In the application (FractalLand3D --replay <file>), the world is
+   built from the flatness and seed in the file, and the KeyReplay is
+   a Behavior which wakes up every frame and presses the keys which
+   are due, keeping the gaps between them that were recorded.
+
+   Run on its own, it replays the walk without a scene, against just
+   a Landscape:
+      java KeyReplay <file> [<rounds>]
+   The keys are pressed one after another, as fast as possible, into a
+   KeyBehavior which moves its own viewpoint transform. Before each key,
+   the Landscape is updated at the viewer's position, and the chunks it
+   asks for are waited for, so every run sees the same terrain. Each
+   press (the move, and its height query) is timed; the first round
+   warms up, and the p50, p95 and p99 times of the rest are printed.
+
+   The final position and a checksum of the viewpoint after every key
+   are printed too; two builds which walk the same path give the same
+   checksum.
+*/
+
+import java.io.*;
+import java.util.*;
+import javax.media.j3d.*;
+import javax.vecmath.*;
+
+
+public class KeyReplay extends Behavior
+{
+  private static final int DEF_ROUNDS = 5;
+
+  private double flatness;
+  private long seed;
+  private long times[];     // ms from the first press
+  private int keyCodes[];
+  private boolean alts[];
+
+  private KeyBehavior keyBeh = null;
+  private WakeupCondition everyFrame;
+  private long startTime = -1;   // ms, when the replay started
+  private int next = 0;          // the next key to press
+
+
+  public KeyReplay(String fnm) throws IOException
+  // load the key presses in fnm
+  {
+    DataInputStream in = new DataInputStream( new BufferedInputStream(
+                                   new FileInputStream(fnm)));
+    try {
+      if ((in.readInt() != KeyRecorder.MAGIC) || (in.readInt() != KeyRecorder.VERSION))
+        throw new IOException(fnm + " is not a key recording");
+      flatness = in.readDouble();
+      seed = in.readLong();
+
+      ArrayList entries = new ArrayList();   // of long[] {time, key}
+      long time = 0;
+      long delay;
+      while ((delay = readVarint(in)) != -1) {
+        time += delay;
+        long key = readVarint(in);
+        if (key == -1)
+          throw new IOException(fnm + " is truncated");
+        entries.add( new long[] {time, key} );
+      }
+
+      times = new long[entries.size()];
+      keyCodes = new int[entries.size()];
+      alts = new boolean[entries.size()];
+      for (int i=0; i < times.length; i++) {
+        long entry[] = (long[]) entries.get(i);
+        times[i] = entry[0];
+        keyCodes[i] = (int) (entry[1] >>> 1);
+        alts[i] = ((entry[1] & 1) != 0);
+      }
+    }
+    finally {
+      in.close();
+    }
+    everyFrame = new WakeupOnElapsedFrames(0);
+  }  // end of KeyReplay()
+
+
+  private static long readVarint(DataInputStream in) throws IOException
+  // the next varint, or -1 at the end of the file
+  {
+    long n = 0;
+    for (int shift=0; shift < 64; shift += 7) {
+      int b = in.read();
+      if (b == -1)
+        return -1;
+      n |= ((long) (b & 0x7f)) << shift;
+      if ((b & 0x80) == 0)
+        return n;
+    }
+    throw new IOException("bad varint in key recording");
+  }  // end of readVarint()
+
+
+  public double getFlatness()
+  {  return flatness;  }
+
+  public long getSeed()
+  {  return seed;  }
+
+  public int getNumKeys()
+  {  return times.length;  }
+
+
+  public void setKeyBehavior(KeyBehavior kb)
+  // the KeyBehavior which the keys are pressed in
+  {  keyBeh = kb;  }
+
+
+
+  // ------------------ replay in the application -------------------
+
+
+  public void initialize()
+  {  wakeupOn( everyFrame );  }
+
+
+  public void processStimulus( Enumeration criteria )
+  { // ignore criteria
+    long now = System.currentTimeMillis();
+    if (startTime == -1)
+      startTime = now;
+    while ((next < times.length) && (times[next] <= now - startTime)) {
+      keyBeh.pressKey(keyCodes[next], alts[next]);
+      next++;
+    }
+    if (next < times.length)
+      wakeupOn( everyFrame );
+    else
+      System.out.println("Replay finished: " + times.length + " keys in " +
+                                       (now - startTime) + " ms");
+  } // end of processStimulus()
+
+
+
+  // ------------------ replay against a Landscape -------------------
+
+
+  private long replayAll(Landscape land, long pressTimes[], int offset,
+                         Vector3d posn)
+  /* Press all the keys in a new KeyBehavior, storing the time each one
+     took in pressTimes from offset on, and the final position in posn.
+     Returns a checksum of the viewpoint after every key. */
+  {
+    KeyBehavior kb = new KeyBehavior(land);
+    Transform3D t3d = new Transform3D();
+    Matrix4d mat = new Matrix4d();
+    long checksum = 17;
+    for (int i=0; i < times.length; i++) {
+      kb.getViewer(t3d);
+      t3d.get(posn);
+      land.updateAndWait(posn.x, posn.z);
+
+      long start = System.nanoTime();
+      kb.pressKey(keyCodes[i], alts[i]);
+      pressTimes[offset+i] = System.nanoTime() - start;
+
+      kb.getViewer(t3d);
+      t3d.get(mat);
+      for (int r=0; r < 4; r++)
+        for (int c=0; c < 4; c++)
+          checksum = 31*checksum + Double.doubleToLongBits( mat.getElement(r, c) );
+    }
+    t3d.get(posn);
+    return checksum;
+  }  // end of replayAll()
+
+
+  public static void main(String args[])
+  {
+    if ((args.length < 1) || (args.length > 2)) {
+      System.out.println("Usage: java KeyReplay <file> [<rounds>]");
+      System.exit(0);
+    }
+    int rounds = DEF_ROUNDS;
+    if (args.length == 2) {
+      try {
+        rounds = Math.max(2, Integer.parseInt(args[1]));
+      }
+      catch (NumberFormatException e)
+      {  System.out.println("Incorrect format for rounds; using " + DEF_ROUNDS);  }
+    }
+
+    KeyReplay replay;
+    try {
+      replay = new KeyReplay(args[0]);
+    }
+    catch (IOException e)
+    { System.out.println("Could not load " + args[0] + ": " + e);
+      System.exit(1);
+      return;
+    }
+    int numKeys = replay.getNumKeys();
+    System.out.println("Replaying " + numKeys + " keys over flatness " +
+                       replay.getFlatness() + ", seed " + replay.getSeed());
+    if (numKeys == 0)
+      System.exit(0);
+
+    Landscape land = new Landscape(replay.getFlatness(), replay.getSeed());
+    Vector3d posn = new Vector3d();
+    long warmUp[] = new long[numKeys];
+    long checksum = replay.replayAll(land, warmUp, 0, posn);
+
+    long pressTimes[] = new long[(rounds-1)*numKeys];
+    for (int r=0; r < rounds-1; r++) {
+      if (replay.replayAll(land, pressTimes, r*numKeys, posn) != checksum)
+        System.out.println("Round " + (r+2) + " took a different path");
+    }
+    Arrays.sort(pressTimes);
+    System.out.println("Key press times over " + (rounds-1) + " rounds (microsecs): " +
+                       "p50 " + Metrics.percentile(pressTimes, 50)/1000.0 +
+                       ", p95 " + Metrics.percentile(pressTimes, 95)/1000.0 +
+                       ", p99 " + Metrics.percentile(pressTimes, 99)/1000.0);
+    System.out.println("Final position: " + posn);
+    System.out.println("Path checksum: " + Long.toHexString(checksum));
+    System.exit(0);   // stop the chunk builders
+  }  // end of main()
+
+}  // end of KeyReplay class
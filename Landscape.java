@@ -3,44 +3,106 @@
 // Andrew Davison, April 2005, ad@fivedots.coe.psu.ac.th
 
 /* This class uses the FractalMesh class to generate the points
-   of the landscape mesh. 
+   of the landscape mesh.
 
-   Each mesh (four points) from FractalMesh is divided into
-   separate lists depending on its average height.
+   The landscape is split into square chunks, CHUNK_LEN cells on a
+   side. Each chunk is a FractalMesh tile, so the chunks join without
+   gaps, and any chunk can be built at any time from the world seed.
 
-   Meshs (quads) within the same height range are used
-   to create a TexturedPlanes object which has an associated
-   texture.
+   Each cell (four points) of a chunk's mesh is put into one of
+   several lists depending on its average height.
 
-   Four walls are created around the floor using the ColouredPlane
-   class.
+   Cells (quads) within the same height range are used
+   to create a TexturedPlanes object which has an associated
+   texture. A chunk's TexturedPlanes hang from its own detachable
+   BranchGroup (see TerrainChunk).
+
+   Each chunk is drawn at NUM_LEVELS levels of detail (geomipmapping).
+   Level l uses blocks of 2^l x 2^l cells, which are bucketed by height
+   in the same way. All the levels index the chunk's one TerrainVertices
+   array, and hang from a Switch. A DistanceLOD picks the level from
+   the viewer's distance to the chunk's centre (see LOD_DISTS), so
+   distant chunks are drawn with far fewer triangles, and the back clip
+   distance can be pushed out. The cracks between chunks at different
+   levels are hidden by skirts (see TexturedPlanes).
+
+   The chunks within START_RADIUS of the origin are built when the
+   Landscape is made. In progressive mode, only their coarsest level
+   (every 2^COARSE_LEVEL'th vertex) is built then, so the first frame
+   can be shown straight away; their full versions are built by the
+   background threads, and swapped in by update() as they finish.
+   After that, update() is called regularly with the viewer's
+   position (by TerrainStreamer). Chunks within LOAD_RADIUS of the
+   viewer's chunk are built by background threads and attached to
+   the floor, while chunks further away than DROP_RADIUS are detached.
+   Detached chunks are kept in case the viewer comes back, until there
+   are more than MAX_CHUNKS chunks in memory; then the least recently
+   used ones are evicted. So the world has no edge, but the heap and
+   the scene graph do not grow with the distance travelled.
 
    getLandHeight() is used by KeyBehavior to get the land height at
-   a given (x,z) location -- it uses picking.
+   a given (x,z) location. It finds the chunk under (x,z) and
+   interpolates the height from the chunk's FractalMesh heightfield,
+   which is O(1) and allocates nothing (so long as the chunk is the
+   same as last time, which it almost always is).
+
+   pickLandHeight() is the original picking version, kept so the
+   two can be compared (see HeightBench).
+
+   getLandHeights() and getLandNormals() answer many (x,z) queries
+   in one call, e.g. for placing objects on the ground. Each query is
+   the same heightfield look-up, and big batches are split into
+   bands which run on the fork/join common pool. As the queries may
+   come from any thread, the chunks are held in a ConcurrentHashMap.
 */
 
 import java.util.*;
+import java.util.concurrent.*;
 
 import com.sun.j3d.utils.geometry.*;
 import com.sun.j3d.utils.universe.*;
 import javax.media.j3d.*;
 import javax.vecmath.*;
 import com.sun.j3d.utils.picking.*;
+import com.sun.j3d.utils.image.TextureLoader;
 
 
 public class Landscape
 {
-  private static final int WORLD_LEN = 64;   //side length of floor
+  private static final int CHUNK_LEN = 32;   // side length of a chunk (a power of 2)
+
+  private static final int START_RADIUS = 1;
+     // chunks this close (in chunks) to the origin are built at start-up
+  private static final int LOAD_RADIUS = 3;
+     // chunks this close to the viewer's chunk are attached
+  private static final int DROP_RADIUS = 4;
+     // chunks further away than this are detached
+  private static final int MAX_CHUNKS = 81;
+     /* memory budget: the most chunks (attached or not) kept at once.
+        A chunk is roughly 100K of heights, geometry and scene graph. */
+
+  private static final int NUM_LEVELS = 4;   // levels of detail; level l has a step of 2^l
+  private static final int COARSE_LEVEL = NUM_LEVELS-1;
+     // the only level of a start chunk in progressive mode
+  private static final float LOD_DISTS[] = {48.0f, 80.0f, 112.0f};
+     /* a chunk whose centre is further from the viewer than LOD_DISTS[l]
+        is drawn at level l+1 or coarser. Up to the first distance
+        covers the viewer's chunk and its neighbours. */
+  private static final double LOD_BOUNDS = (DROP_RADIUS+2)*CHUNK_LEN;
+     // a chunk's DistanceLOD is active while the viewer is this close
+
+  private static final int BAND_QUERIES = 4096;
+     // a batch of queries is split until a band has no more than this many
 
   private static final int NUM_TEXTURES = 5;
   private static final String textureFns[] =
-					{"water-shallow.jpg", "sand.jpg", "grass.gif", 
+					{"water-shallow.jpg", "sand.jpg", "grass.gif",
 					 "dryEarth.jpg", "stone.gif"};
 
   private final static double MIN_HEIGHT = -2.0;
   private final static double MAX_HEIGHT = 8.0;
 
-  /* The number of textures are used to calculate the height boundaries 
+  /* The number of textures are used to calculate the height boundaries
      between MIN_HEIGHT and MAX_HEIGHT. The first named texture in textureFns[]
      is used for quads in the first height range (the lowest), the second
      texture for the next height range, and so on.
@@ -51,35 +113,114 @@ public class Landscape
 
 
   private BranchGroup landBG, floorBG;
-  private Point3d vertices[];				// landscape coordinates
-  private double textureBoundaries[];   
+  private double textureBoundaries[];
      // heights that mark the boundaries for which mesh gets which texture
+  private Appearance floorApps[];    // one for each texture, shared by all the chunks
 
   private final Vector3d originVec = new Vector3d(2,2,2);   // stating point for viewpoint
   private boolean foundOrigin = true;
   private PickTool picker;
 
+  private double flatness;
+  private long seed;
+
+  private ConcurrentHashMap chunks;   // built chunks, attached or not; key is chunkKey()
+  private HashSet pending;     // keys of chunks being built
+  private HashSet failed;      // keys of chunks whose build failed; not asked for again
+  private ConcurrentLinkedQueue builtChunks;
+     // finished by the builders: TerrainChunks, or the keys of failed builds
+  private ExecutorService builders;
+  private long updateTick = 0;   // number of calls to update()
+  private TerrainChunk lastChunk = null;   // last chunk used by findChunk()
+
+
+  public Landscape(double flatness, long seed)
+  {  this(flatness, seed, false);  }
 
-  public Landscape(double flatness)
+
+  public Landscape(double flatness, long seed, boolean progressive)
   {
+    this.flatness = flatness;
+    this.seed = seed;
+
     landBG = new BranchGroup();
     floorBG = new BranchGroup();
+    floorBG.setCapability(Group.ALLOW_CHILDREN_READ);
+    floorBG.setCapability(Group.ALLOW_CHILDREN_WRITE);
+    floorBG.setCapability(Group.ALLOW_CHILDREN_EXTEND);
     landBG.addChild(floorBG);  // so landBG-->floorBG
 
     setTexBoundaries();
+    makeAppearances();
 
     picker = new PickTool(floorBG);   // only check the floor
     picker.setMode(PickTool.GEOMETRY_INTERSECT_INFO);
 
-    FractalMesh fm = new FractalMesh(flatness);
-    // fm.printMesh(1);   // for debugging: x=0; y=1; z=2
-    vertices = fm.getVertices();    // get the vertices generated by FractalMesh
-
-    platifyFloor();
-    addWalls();
+    chunks = new ConcurrentHashMap();
+    pending = new HashSet();
+    failed = new HashSet();
+    builtChunks = new ConcurrentLinkedQueue();
+    builders = Executors.newFixedThreadPool(numBuilders(),
+                        new DaemonThreads("chunk builder", Thread.MIN_PRIORITY));
+
+    if (progressive)
+      buildCoarseChunks();
+    else
+      buildStartChunks();
   } // end of Landscape()
 
 
+  private void buildStartChunks()
+  /* Build the chunks around the origin now, so the first view is
+     complete. They are built in parallel by the builders, and
+     attached here in order once they are all done. */
+  {
+    ArrayList builds = new ArrayList();
+    for (int cz = -START_RADIUS; cz <= START_RADIUS; cz++)
+      for (int cx = -START_RADIUS; cx <= START_RADIUS; cx++) {
+        final int bx = cx, bz = cz;
+        builds.add( new Callable() {
+          public Object call()
+          {  return buildChunk(bx, bz);  }
+        });
+      }
+
+    try {
+      List built = builders.invokeAll(builds);
+      for (int i=0; i < built.size(); i++) {
+        TerrainChunk chunk = (TerrainChunk) ((Future) built.get(i)).get();
+        chunks.put( chunkKey(chunk.getChunkX(), chunk.getChunkZ()), chunk);
+        chunk.attach(floorBG);
+      }
+    }
+    catch (InterruptedException e)
+    {  Thread.currentThread().interrupt();  }
+    catch (ExecutionException e)
+    {  throw new RuntimeException(e.getCause());  }
+  }  // end of buildStartChunks()
+
+
+  private void buildCoarseChunks()
+  /* Attach a coarse version of each start chunk, and ask the
+     builders for the full versions, reusing the coarse ones' meshes.
+     update() will swap them in. */
+  {
+    for (int cz = -START_RADIUS; cz <= START_RADIUS; cz++)
+      for (int cx = -START_RADIUS; cx <= START_RADIUS; cx++) {
+        FractalMesh fm = new FractalMesh(flatness, CHUNK_LEN, seed, cx, cz);
+        TerrainChunk chunk = buildChunk(fm, cx, cz, COARSE_LEVEL);
+        chunks.put( chunkKey(cx, cz), chunk);
+        chunk.attach(floorBG);
+        requestChunk(fm, cx, cz);
+      }
+  }  // end of buildCoarseChunks()
+
+
+  private int numBuilders()
+  // leave a core for rendering
+  {  return Math.max(1, Runtime.getRuntime().availableProcessors()-1);  }
+
+
   private void setTexBoundaries()
   // Store the height boundaries for the textures
   {
@@ -93,75 +234,305 @@ public class Landscape
   } // end of setTexBoundaries()
 
 
+  private void makeAppearances()
+  // load each texture once; every chunk's TexturedPlanes share them
+  {
+    String fnms[] = new String[NUM_TEXTURES];
+    for (int i=0; i < NUM_TEXTURES; i++)
+      fnms[i] = "images/"+textureFns[i];
+    TextureCache.preloadTextures(fnms, TextureLoader.GENERATE_MIPMAP);
+
+    floorApps = new Appearance[NUM_TEXTURES];
+    for (int i=0; i < NUM_TEXTURES; i++)
+      floorApps[i] = TexturedPlanes.makeAppearance(fnms[i]);
+  }  // end of makeAppearances()
+
+
 
-  private void platifyFloor()
-  /* Examine the quads stored in vertices[]. Check the
-     average height and assign it to the ArrayList for
-     coords in that height range.
+  // ----------------------- chunks -------------------------------
 
-     Pass each ArrayList and their texture filenames to
-     a TexturedPlanes object to build the 3D mesh for
-     those coords.
-  */
+
+  private static Long chunkKey(int cx, int cz)
+  {  return Long.valueOf( (((long) cz) << 32) | (cx & 0xFFFFFFFFL) );  }
+
+
+  private static int toChunk(double coord)
+  // the chunk index for a world x or z coordinate
+  {  return (int) Math.floor(coord / CHUNK_LEN);  }
+
+
+  private TerrainChunk buildChunk(int cx, int cz)
+  // Generate the chunk's FractalMesh tile and its TexturedPlanes
   {
-    ArrayList[] coordsList = new ArrayList[NUM_TEXTURES];
-    for (int i=0; i < NUM_TEXTURES; i++)
-      coordsList[i] = new ArrayList();
+    FractalMesh fm = new FractalMesh(flatness, CHUNK_LEN, seed, cx, cz);
+    // fm.printMesh(1);   // for debugging: x=0; y=1; z=2
+    return buildChunk(fm, cx, cz, 0);
+  }  // end of buildChunk()
 
-    int heightIdx;
-    for (int j=0; j < vertices.length; j=j+4) {   // test each quad
-      heightIdx = findHeightIdx(j);   // which height index applies to the quad
-      addCoords( coordsList[heightIdx], j);   // add quad to the list for that height
-      checkForOrigin(j);       // check if (0,0) is a point in the quad
+
+  private TerrainChunk buildChunk(FractalMesh fm, int cx, int cz, int firstLevel)
+  /* Make the chunk's TexturedPlanes for the levels of detail from
+     firstLevel on. Nothing here touches the live scene, so it can be
+     run by a builder thread. */
+  {
+    BranchGroup chunkBG = new BranchGroup();
+    ArrayList planes = new ArrayList();
+    Switch levelsSw = platifyFloor(fm, planes, firstLevel);
+    chunkBG.addChild(levelsSw);
+    if (firstLevel > 0)      // there's only the one level to show
+      return new TerrainChunk(cx, cz, fm, chunkBG, planes);
+
+    // choose the level from the viewer's distance to the chunk's centre
+    Point3f centre = new Point3f((cx+0.5f)*CHUNK_LEN, 0, (cz+0.5f)*CHUNK_LEN);
+    DistanceLOD lod = new DistanceLOD(LOD_DISTS, centre);
+    lod.addSwitch(levelsSw);
+    lod.setSchedulingBounds( new BoundingSphere(new Point3d(centre), LOD_BOUNDS) );
+    chunkBG.addChild(lod);
+
+    return new TerrainChunk(cx, cz, fm, chunkBG, planes);
+  }  // end of buildChunk()
+
+
+  private void requestChunk(final int cx, final int cz)
+  // build the chunk in the background; update() will attach it
+  {
+    pending.add( chunkKey(cx, cz) );
+    builders.execute( new Runnable() {
+      public void run()
+      {  builtChunks.add( buildOrFail(null, cx, cz) );  }
+    });
+  }  // end of requestChunk()
+
+
+  private void requestChunk(final FractalMesh fm, final int cx, final int cz)
+  // build the full chunk for an existing mesh; update() will swap it in
+  {
+    pending.add( chunkKey(cx, cz) );
+    builders.execute( new Runnable() {
+      public void run()
+      {  builtChunks.add( buildOrFail(fm, cx, cz) );  }
+    });
+  }  // end of requestChunk()
+
+
+  private Object buildOrFail(FractalMesh fm, int cx, int cz)
+  /* Build the chunk (the full chunk for fm, if it's given). If the
+     build fails, print why, and return the chunk's key instead, so
+     update() still takes it off pending. */
+  {
+    try {
+      return (fm == null) ? buildChunk(cx, cz) : buildChunk(fm, cx, cz, 0);
+    }
+    catch (Throwable e)    // e.g. an OutOfMemoryError
+    { System.out.println("Could not build chunk (" + cx + ", " + cz + "): " + e);
+      return chunkKey(cx, cz);
     }
+  }  // end of buildOrFail()
 
-    // use each coordsList and texture to make a TexturedPlanes object
-    for (int i=0; i < NUM_TEXTURES; i++)
-      if (coordsList[i].size() > 0)    // if used
-        floorBG.addChild( new TexturedPlanes(coordsList[i],  // then add to the floor
-						"images/"+textureFns[i]) );
+
+  private boolean isNear(TerrainChunk chunk, int vcx, int vcz, int radius)
+  // is the chunk within radius chunks of the viewer's chunk (vcx, vcz)?
+  {
+    return (Math.abs(chunk.getChunkX() - vcx) <= radius) &&
+           (Math.abs(chunk.getChunkZ() - vcz) <= radius);
+  }
+
+
+  public void update(double xPosn, double zPosn)
+  /* Called on the behaviour thread with the viewer's position.
+     Attach newly built chunks, ask for missing ones around the viewer,
+     detach distant ones, and evict chunks if over budget. */
+  {
+    updateTick++;
+    int vcx = toChunk(xPosn);
+    int vcz = toChunk(zPosn);
+
+    // collect the chunks finished by the builders
+    TerrainChunk chunk;
+    Object built;
+    while ((built = builtChunks.poll()) != null) {
+      if (built instanceof Long) {   // the build failed; leave a hole
+        pending.remove(built);
+        failed.add(built);
+        continue;
+      }
+      chunk = (TerrainChunk) built;
+      Long key = chunkKey(chunk.getChunkX(), chunk.getChunkZ());
+      pending.remove(key);
+      TerrainChunk old = (TerrainChunk) chunks.put(key, chunk);
+      if ((old != null) && old.isAttached()) {   // a coarse chunk has been refined
+        chunk.attach(floorBG);
+        old.detach();
+      }
+      chunk.setLastUsed(updateTick);
+    }
+
+    // attach (or request) the chunks near the viewer
+    for (int cz = vcz-LOAD_RADIUS; cz <= vcz+LOAD_RADIUS; cz++)
+      for (int cx = vcx-LOAD_RADIUS; cx <= vcx+LOAD_RADIUS; cx++) {
+        Long key = chunkKey(cx, cz);
+        chunk = (TerrainChunk) chunks.get(key);
+        if (chunk != null) {
+          chunk.attach(floorBG);
+          chunk.setLastUsed(updateTick);
+        }
+        else if (!pending.contains(key) && !failed.contains(key))
+          requestChunk(cx, cz);
+      }
+
+    // detach distant chunks
+    Iterator it = chunks.values().iterator();
+    while (it.hasNext()) {
+      chunk = (TerrainChunk) it.next();
+      if (chunk.isAttached() && !isNear(chunk, vcx, vcz, DROP_RADIUS))
+        chunk.detach();
+    }
+
+    evictChunks();
+  }  // end of update()
+
+
+  public void updateAndWait(double xPosn, double zPosn)
+  /* update(), then wait until the chunks it asks for have been built
+     and attached, so the heights around the viewer don't depend on
+     how fast the builders are (for KeyReplay). Not to be called on the
+     behaviour thread, as the scene would stop until they're done. */
+  {
+    update(xPosn, zPosn);
+    while (!pending.isEmpty()) {
+      try {
+        Thread.sleep(2);
+      }
+      catch (InterruptedException e)
+      { Thread.currentThread().interrupt();
+        return;
+      }
+      update(xPosn, zPosn);
+    }
+  }  // end of updateAndWait()
+
+
+  private void evictChunks()
+  // while over budget, forget the least recently used detached chunk
+  {
+    while (chunks.size() > MAX_CHUNKS) {
+      TerrainChunk oldest = null;
+      Iterator it = chunks.values().iterator();
+      while (it.hasNext()) {
+        TerrainChunk chunk = (TerrainChunk) it.next();
+        if (!chunk.isAttached() &&
+            ((oldest == null) || (chunk.getLastUsed() < oldest.getLastUsed())))
+          oldest = chunk;
+      }
+      if (oldest == null)    // everything is attached
+        return;
+      chunks.remove( chunkKey(oldest.getChunkX(), oldest.getChunkZ()) );
+      if (oldest == lastChunk)
+        lastChunk = null;
+    }
+  }  // end of evictChunks()
+
+
+
+  // ---------------------- texturing ------------------------------
+
+
+  private Switch platifyFloor(FractalMesh fm, ArrayList planes, int firstLevel)
+  /* For each level of detail from firstLevel on, pass each list of blocks made by
+     bucketCells() and their texture to a TexturedPlanes object to
+     build the 3D mesh for those blocks. The levels are the children
+     of the returned Switch, and the TexturedPlanes are also added
+     to planes.
+  */
+  {
+    TerrainVertices verts = new TerrainVertices(fm);   // shared by all the levels and textures
+
+    Switch levelsSw = new Switch(0);    // full detail until the DistanceLOD runs
+    levelsSw.setCapability(Switch.ALLOW_SWITCH_WRITE);
+    for (int level=firstLevel; level < NUM_LEVELS; level++) {
+      int step = 1 << level;
+      int[][] cellsList = bucketCells(fm, step);
+      Group levelGroup = new Group();
+
+      // use each cellsList and texture to make a TexturedPlanes object
+      for (int i=0; i < NUM_TEXTURES; i++)
+        if (cellsList[i].length > 0) {   // if used
+          TexturedPlanes tp = new TexturedPlanes(verts, cellsList[i], step, floorApps[i]);
+          levelGroup.addChild(tp);    // then add to the level
+          planes.add(tp);
+        }
+      levelsSw.addChild(levelGroup);
+    }
+    return levelsSw;
   } // end of platifyFloor()
 
 
 
-  private int findHeightIdx(int vertIndex)
-  /* Find the height index for the quad starting at vertices[vertIndex].
-     Get the average height for the 4 points in the quad.
-     If it is less than the boundary value, then the quad belongs 
+  int[][] bucketCells(FractalMesh fm, int step)
+  /* Examine the step*step blocks of cells that make up the mesh.
+     Check the average height of a block's corners and assign its
+     index (bz*blocksLen + bx) to the list for blocks in that height
+     range. Each list is in increasing order, as TexturedPlanes expects.
+     A step of 1 gives the single cells (quads) of the mesh.
+
+     Package access, so it can be benchmarked on its own.
+  */
+  {
+    int blocksLen = fm.getWorldLen()/step;
+    int heightIdxs[] = new int[blocksLen*blocksLen];
+    int counts[] = new int[NUM_TEXTURES];
+
+    int block = 0;
+    for (int z=0; z < blocksLen*step; z += step)    // test each block
+      for (int x=0; x < blocksLen*step; x += step) {
+        heightIdxs[block] = findHeightIdx(fm, z, x, step);   // which height index applies to the block
+        counts[ heightIdxs[block] ]++;
+        checkForOrigin(fm, z, x);       // check if (0,0) is a corner of the block
+        block++;
+      }
+
+    int[][] cellsList = new int[NUM_TEXTURES][];
+    for (int i=0; i < NUM_TEXTURES; i++) {
+      cellsList[i] = new int[ counts[i] ];
+      counts[i] = 0;
+    }
+    for (block=0; block < heightIdxs.length; block++) {   // add each block to the list for its height
+      int hi = heightIdxs[block];
+      cellsList[hi][ counts[hi]++ ] = block;
+    }
+    return cellsList;
+  }  // end of bucketCells()
+
+
+
+  private int findHeightIdx(FractalMesh fm, int z, int x, int step)
+  /* Find the height index for the block whose back left corner is in
+     row z, column x. Get the average height for the 4 corners of the block.
+     If it is less than the boundary value, then the block belongs
      to that height range. */
   {
-    double ah = avgHeight(vertIndex);
+    double ah = avgHeight(fm, z, x, step);
     for(int i=0; i < textureBoundaries.length; i++)
       if (ah < textureBoundaries[i])
         return i;
-    return NUM_TEXTURES-1;   // last ArrayList is default
+    return NUM_TEXTURES-1;   // last list is default
   } // end of findHeightIdx()
 
 
-  private double avgHeight(int vi)
-  // Calculate the average height for the 4 points in the quad.
-  { 
-    return (vertices[vi].y + vertices[vi+1].y +
-			vertices[vi+2].y + vertices[vi+3].y)/4.0;
-  }
-
-
-  private void addCoords(ArrayList coords, int vi)
-  // add the 4 coords (the quad) beginning at vertices[vi] to the ArrayList
+  private double avgHeight(FractalMesh fm, int z, int x, int step)
+  // Calculate the average height for the 4 corners of the block.
   {
-    coords.add( vertices[vi] ); coords.add( vertices[vi+1] ); 
-    coords.add( vertices[vi+2] ); coords.add( vertices[vi+3] );
-  }  // end of addCoords()
+    return (fm.getHeight(z+step, x) + fm.getHeight(z+step, x+step) +
+			fm.getHeight(z, x+step) + fm.getHeight(z, x))/4.0;
+  }
 
 
-  private void checkForOrigin(int vi)
-  // If vertices[vi] is at the origin, store its position in originVec
+  private void checkForOrigin(FractalMesh fm, int z, int x)
+  // If the point in row z, column x is at the origin, store its position in originVec
   {
     if (!foundOrigin) {
-       if ((vertices[vi].x == 0.0) && (vertices[vi].z == 0.0)) {
-         // System.out.println("Found Origin: (" + vertices[vi].x + ", " + 
-		 //			vertices[vi].y + ", " + vertices[vi].z + ")");
-         originVec.y = vertices[vi].y;
+       if ((fm.getXOrigin() + x == 0) && (fm.getZOrigin() + z == 0)) {
+         originVec.y = fm.getHeight(z, x);
          foundOrigin = true;
        }
     }
@@ -169,70 +540,137 @@ public class Landscape
 
 
 
-  private void addWalls()
-  // Add 4 walls around the landscape
+  // ------------- public methods ------------------
+
+
+  public BranchGroup getLandBG()
+  {  return landBG;  }
+
+
+  private TerrainChunk findChunk(double xPosn, double zPosn)
+  /* Return the chunk containing (xPosn,zPosn), or null if it hasn't
+     been built. The last chunk found is checked first, so there is
+     no map look-up (and no Long key) while the user stays in it. */
   {
-    Color3f eveningBlue = new Color3f(0.17f, 0.07f, 0.45f);  // wall colour
+    int cx = toChunk(xPosn);
+    int cz = toChunk(zPosn);
+    TerrainChunk chunk = lastChunk;
+    if ((chunk == null) || (chunk.getChunkX() != cx) || (chunk.getChunkZ() != cz)) {
+      chunk = (TerrainChunk) chunks.get( chunkKey(cx, cz) );
+      if (chunk != null)
+        lastChunk = chunk;
+    }
+    return chunk;
+  }  // end of findChunk()
 
-    // the eight corner points
-    // back, left
-    Point3d p1 = new Point3d(-WORLD_LEN/2.0f, MIN_HEIGHT, -WORLD_LEN/2.0f);
-    Point3d p2 = new Point3d(-WORLD_LEN/2.0f, MAX_HEIGHT, -WORLD_LEN/2.0f);
 
-    // front, left
-    Point3d p3 = new Point3d(-WORLD_LEN/2.0f, MIN_HEIGHT, WORLD_LEN/2.0f);
-    Point3d p4 = new Point3d(-WORLD_LEN/2.0f, MAX_HEIGHT, WORLD_LEN/2.0f);
+  public boolean inLandscape(double xPosn, double zPosn)
+  /* is (xPosn,zPosn) on the floor? The floor has no edges, but
+     the user can only walk onto chunks which have been attached. */
+  {
+    TerrainChunk chunk = findChunk(xPosn, zPosn);
+    return (chunk != null) && chunk.isAttached();
+  }  // end of inLandscape()
 
-    // front, right
-    Point3d p5 = new Point3d(WORLD_LEN/2.0f, MIN_HEIGHT, WORLD_LEN/2.0f);
-    Point3d p6 = new Point3d(WORLD_LEN/2.0f, MAX_HEIGHT, WORLD_LEN/2.0f);
 
-    // back, right
-    Point3d p7 = new Point3d(WORLD_LEN/2.0f, MIN_HEIGHT, -WORLD_LEN/2.0f);
-    Point3d p8 = new Point3d(WORLD_LEN/2.0f, MAX_HEIGHT, -WORLD_LEN/2.0f);
+  public Vector3d getOriginVec()
+  {  return originVec;  }
 
-    // left wall; counter-clockwise
-    landBG.addChild( new ColouredPlane(p3, p1, p2, p4, 
-							new Vector3f(-1,0,0), eveningBlue) );
-    // front wall; counter-clockwise from back
-    landBG.addChild( new ColouredPlane(p5, p3, p4, p6,
-							new Vector3f(0,0,-1), eveningBlue) );
-    // right wall
-    landBG.addChild( new ColouredPlane(p7, p5, p6, p8, 
-							new Vector3f(-1,0,0), eveningBlue) );
-    // back wall
-    landBG.addChild( new ColouredPlane(p7, p8, p2, p1, 
-							new Vector3f(0,0,1), eveningBlue) );
-  } // end of addWalls()
 
+  public double getLandHeight(double x, double z, double currHeight)
+  /* Return the floor height at (x,z) from the heightfield of the
+     chunk underneath it. If that chunk hasn't been built yet then
+     the height for the last viewpoint position is returned.
+  */
+  {
+    TerrainChunk chunk = findChunk(x, z);
+    if (chunk == null)
+      return currHeight;
+    return chunk.getMesh().getHeightAt(x, z);
+  }  // end of getLandHeight()
 
 
-  // ------------- public methods ------------------
+  public void getLandHeights(float xs[], float zs[], float heights[])
+  /* Store the floor height at each (xs[i], zs[i]) in heights[i].
+     A point whose chunk hasn't been built gets Float.NaN. */
+  {  queryLand(xs, zs, heights, false);  }
 
 
-  public BranchGroup getLandBG()
-  {  return landBG;  }
+  public void getLandNormals(float xs[], float zs[], float normals[])
+  /* Store the unit normal of the floor at each (xs[i], zs[i]) in
+     normals[3*i .. 3*i+2]. A point whose chunk hasn't been built
+     gets Float.NaN. */
+  {  queryLand(xs, zs, normals, true);  }
 
 
-  public boolean inLandscape(double xPosn, double zPosn)
-  // is (xPosn,zPosn) on the floo?
+  private void queryLand(float xs[], float zs[], float out[], boolean isNormal)
   {
-    int x = (int) Math.round(xPosn);   // to deal with dp errors
-    int z = (int) Math.round(zPosn);
+    if (xs.length > BAND_QUERIES)
+      new QueryTask(xs, zs, out, isNormal, 0, xs.length).invoke();
+    else
+      doQueries(xs, zs, out, isNormal, 0, xs.length);
+  }  // end of queryLand()
 
-    if ((x <= -WORLD_LEN/2) || (x >= WORLD_LEN/2) ||
-        (z <= -WORLD_LEN/2) || (z >= WORLD_LEN/2))
-      return false;
-    return true;
-  }  // end of inLandscape()
 
+  private void doQueries(float xs[], float zs[], float out[], boolean isNormal,
+                                                 int start, int end)
+  /* Answer queries start to end-1. Nearby queries usually fall in the
+     same chunk, so the chunk is only looked up again when it changes. */
+  {
+    TerrainChunk chunk = null;
+    int cx = 0, cz = 0;
+    for (int i = start; i < end; i++) {
+      int qcx = toChunk(xs[i]);
+      int qcz = toChunk(zs[i]);
+      if ((chunk == null) || (qcx != cx) || (qcz != cz)) {
+        cx = qcx;  cz = qcz;
+        chunk = (TerrainChunk) chunks.get( chunkKey(cx, cz) );
+      }
 
-  public Vector3d getOriginVec()
-  {  return originVec;  }
+      if (isNormal) {
+        if (chunk == null)
+          out[3*i] = out[3*i+1] = out[3*i+2] = Float.NaN;
+        else
+          chunk.getMesh().getNormalAt(xs[i], zs[i], out, 3*i);
+      }
+      else
+        out[i] = (chunk == null) ? Float.NaN : 
+                                   (float) chunk.getMesh().getHeightAt(xs[i], zs[i]);
+    }
+  }  // end of doQueries()
 
 
-  public double getLandHeight(double x, double z, double currHeight)
-  /* Throw a pick ray downwards below the (x,z) point to intersect
+  private class QueryTask extends RecursiveAction
+  // Answers a band of queries, splitting itself in half until it is small enough.
+  {
+    private static final long serialVersionUID = 1L;
+    private float xs[], zs[], out[];
+    private boolean isNormal;
+    private int start, end;
+
+    public QueryTask(float xs[], float zs[], float out[], boolean isNormal,
+                                                    int start, int end)
+    { this.xs = xs;  this.zs = zs;  this.out = out;
+      this.isNormal = isNormal;
+      this.start = start;  this.end = end;
+    }
+
+    protected void compute()
+    {
+      if (end - start <= BAND_QUERIES)
+        doQueries(xs, zs, out, isNormal, start, end);
+      else {
+        int mid = (start + end)/2;
+        invokeAll( new QueryTask(xs, zs, out, isNormal, start, mid),
+                   new QueryTask(xs, zs, out, isNormal, mid, end) );
+      }
+    }
+  }  // end of QueryTask class
+
+
+  public double pickLandHeight(double x, double z, double currHeight)
+  /* The old version of getLandHeight().
+     Throw a pick ray downwards below the (x,z) point to intersect
      with the floor. Extract the y-value (the height of the floor
      and return it.
 
@@ -261,7 +699,7 @@ public class Landscape
       }
     }
     return currHeight;    // error if we reach here; return existing height
-  }  // end of getLandHeight()
+  }  // end of pickLandHeight()
 
 
 } // end of Landscape class
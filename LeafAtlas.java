@@ -0,0 +1,125 @@
+// LeafAtlas.java
+
+/* A LeafAtlas packs a series of leaf images into one texture, so
+   every ImageCsSeries screen showing that series shares the same
+   Texture2D.
+
+   The images go into equal slots, left to right and then row by row
+   (each image is scaled to fit its slot). There is a shared Appearance
+   for each image, which uses the atlas texture with a texture transform
+   that picks out that image's slot from the quad's (0,0)-(1,1) texture
+   coordinates. A screen shows an image by switching to its Appearance:
+   the atlas is sent to the graphics card once, instead of the screen's
+   own texture being reloaded with a new image every time the leaves grow.
+
+   forImages() makes one atlas for each series of images (an array
+   of ImageComponent2Ds), and hands the same one back after that.
+*/
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import javax.media.j3d.*;
+import javax.vecmath.*;
+
+
+public class LeafAtlas
+{
+  private static final int MAX_SIZE = 2048;   // the widest an atlas can be
+
+  private static HashMap atlases = new HashMap();   // image series --> LeafAtlas
+
+  private Appearance apps[];    // one for each image
+
+
+  public static synchronized LeafAtlas forImages(ImageComponent2D ims[])
+  // the atlas for this series of images
+  {
+    LeafAtlas atlas = (LeafAtlas) atlases.get(ims);
+    if (atlas == null) {
+      atlas = new LeafAtlas(ims);
+      atlases.put(ims, atlas);
+    }
+    return atlas;
+  }  // end of forImages()
+
+
+  private LeafAtlas(ImageComponent2D ims[])
+  {
+    // the slots are the size of the largest image, rounded up to a power of 2
+    int slotW = 1, slotH = 1;
+    for (int i=0; i < ims.length; i++) {
+      slotW = Math.max(slotW, powerOf2(ims[i].getWidth()));
+      slotH = Math.max(slotH, powerOf2(ims[i].getHeight()));
+    }
+    slotW = Math.min(slotW, MAX_SIZE);
+    int cols = Math.min( powerOf2(ims.length), MAX_SIZE/slotW );
+    int rows = powerOf2( (ims.length + cols-1)/cols );
+
+    BufferedImage atlasIm = new BufferedImage(cols*slotW, rows*slotH,
+                                              BufferedImage.TYPE_INT_ARGB);
+    Graphics2D g2d = atlasIm.createGraphics();
+    g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                         RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+    for (int i=0; i < ims.length; i++)
+      g2d.drawImage(ims[i].getImage(), (i%cols)*slotW, (i/cols)*slotH, slotW, slotH, null);
+    g2d.dispose();
+
+    Texture2D texture = new Texture2D(Texture2D.BASE_LEVEL, Texture.RGBA,
+                                      atlasIm.getWidth(), atlasIm.getHeight());
+    texture.setMagFilter(Texture2D.BASE_LEVEL_LINEAR);   // NICEST
+    texture.setImage(0, new ImageComponent2D(ImageComponent.FORMAT_RGBA, atlasIm));
+    if (Metrics.isOn())
+      Metrics.TEXTURE_UPLOADS.record(1);
+
+    // blended transparency so texture can be irregular
+    TransparencyAttributes tra = new TransparencyAttributes();
+    tra.setTransparencyMode( TransparencyAttributes.BLENDED );
+
+    apps = new Appearance[ims.length];
+    for (int i=0; i < ims.length; i++) {
+      Appearance app = new Appearance();
+      app.setTransparencyAttributes( tra );
+      app.setTexture(texture);
+      TextureAttributes ta = new TextureAttributes();
+      ta.setTextureTransform( slotTransform(i%cols, rows-1 - i/cols, cols, rows, slotW, slotH) );
+      app.setTextureAttributes(ta);
+      apps[i] = app;
+    }
+  }  // end of LeafAtlas()
+
+
+  private Transform3D slotTransform(int col, int row, int cols, int rows,
+                                    int slotW, int slotH)
+  /* Map (0,0)-(1,1) to the slot at col and row (counting up from the
+     bottom, as t does), half a texel in from its edges, so the
+     filtering doesn't pick up the next slot. */
+  {
+    double uScale = (1.0 - 1.0/slotW)/cols;
+    double vScale = (1.0 - 1.0/slotH)/rows;
+    Transform3D t3d = new Transform3D();
+    t3d.setScale( new Vector3d(uScale, vScale, 1.0) );
+    t3d.setTranslation( new Vector3d((col + 0.5/slotW)/cols,
+                                     (row + 0.5/slotH)/rows, 0) );
+    return t3d;
+  }  // end of slotTransform()
+
+
+  private static int powerOf2(int n)
+  // the smallest power of 2 >= n
+  {
+    int p = 1;
+    while (p < n)
+      p *= 2;
+    return p;
+  }  // end of powerOf2()
+
+
+  public int getNumImages()
+  {  return apps.length;  }
+
+  public Appearance getAppearance(int i)
+  // the Appearance showing image i
+  {  return apps[i];  }
+
+}  // end of LeafAtlas class
@@ -0,0 +1,201 @@
+// LimbState.java
+
+/* The growth state of all the limbs managed by one TreePopulation,
+   stored as a struct of arrays: limb i's age is age[i], its parent's
+   index is parent[i], and so on. The growth rules are a loop over
+   these arrays, which needs no casts, makes no garbage, and reads
+   memory in order.
+
+   The scene graph side of limb i is limbs[i], a TreeLimb.
+
+   A growth tick has two phases (see TreePopulation). The compute
+   phase may run on several threads at once, and each thread only
+   writes the entries of the limbs it is working on. It records the
+   changes it wants made to the scene graph (and to the tree's shape)
+   as commands: bits in cmd[i], plus the axis and angle of each child
+   to be spawned in spawnAxis[] and spawnAngle[] (an entry for each
+   of the GrowthRules branches, so MAX_BRANCHES entries a limb).
+   The commit phase then carries out the commands in limb order on
+   the behaviour thread, and clears them.
+
+   A limb is settled once no rule can change it again: it has stopped
+   growing and changing colour, is past the age for spawning, and its
+   leaves (if it can have any) are fully grown. The rules skip settled
+   limbs. unsettled[] counts the limbs of each tree which aren't settled
+   yet (indexed by the tree's base limb); when it gets to 0 the tree is
+   mature, and TreePopulation freezes it (see FrozenTree).
+
+   The fields are package access, like a C struct, since the point is
+   that TreePopulation works on the arrays directly.
+*/
+
+public class LimbState
+{
+  private static final int INIT_CAPACITY = 64;
+
+  // the command bits in cmd[]
+  static final int SCALE = 1;        // push the scale
+  static final int COLOUR = 2;       // push the colour
+  static final int LEAVES = 4;       // start leaves, if the limb still has no children
+  static final int NEXT_LEAF = 8;    // show the next leaf image, if it has leaves
+  static final int SPAWN = 16;       /* SPAWN << b: spawn a child for branch b (using
+                                        entry i*MAX_BRANCHES + b of the spawn arrays) */
+  static final int SPAWNS = 0xf0;    // all the SPAWN bits
+
+  private static final int MAX_BRANCHES = GrowthRules.MAX_BRANCHES;
+
+  int count = 0;         // number of limbs
+
+  TreeLimb limbs[];      // the scene graph for each limb
+
+  // fixed when the limb is made
+  long id[];             // entity id for WorldRandom
+  int parent[];          // index of the parent limb, or -1 for a base limb
+  int root[];            // index of the tree's base limb
+  int level[];           // 1 for a base limb
+  int axis[];            // orientation axis and angle
+  double angle[];
+  float radius[];        // unscaled size of the cylinder
+  float length[];
+
+  // changed by the rules
+  int age[];
+  int numChildren[];
+  double radiusScale[];  // x and z scale of the cylinder
+  double lengthScale[];  // y scale
+  int colourStep[];      // steps taken from green to brown
+  int colour[];          // index of the colour in the GrowthRules palette
+  boolean hasLeaves[];
+  int leafStep[];        // how many times the next leaf image has been shown
+
+  // maturity
+  boolean settled[];
+  int unsettled[];       // for a base limb, the number of its tree's limbs not settled
+
+  // commands made by the compute phase
+  byte cmd[];
+  int spawnAxis[];       // MAX_BRANCHES entries for each limb
+  double spawnAngle[];
+
+
+  public LimbState()
+  {
+    limbs = new TreeLimb[INIT_CAPACITY];
+    id = new long[INIT_CAPACITY];
+    parent = new int[INIT_CAPACITY];
+    root = new int[INIT_CAPACITY];
+    level = new int[INIT_CAPACITY];
+    axis = new int[INIT_CAPACITY];
+    angle = new double[INIT_CAPACITY];
+    radius = new float[INIT_CAPACITY];
+    length = new float[INIT_CAPACITY];
+    age = new int[INIT_CAPACITY];
+    numChildren = new int[INIT_CAPACITY];
+    radiusScale = new double[INIT_CAPACITY];
+    lengthScale = new double[INIT_CAPACITY];
+    colourStep = new int[INIT_CAPACITY];
+    colour = new int[INIT_CAPACITY];
+    hasLeaves = new boolean[INIT_CAPACITY];
+    leafStep = new int[INIT_CAPACITY];
+    settled = new boolean[INIT_CAPACITY];
+    unsettled = new int[INIT_CAPACITY];
+    cmd = new byte[INIT_CAPACITY];
+    spawnAxis = new int[MAX_BRANCHES*INIT_CAPACITY];
+    spawnAngle = new double[MAX_BRANCHES*INIT_CAPACITY];
+  }  // end of LimbState()
+
+
+  public int add(long limbId, int par, int ax, double ang, float rad, float len)
+  /* Add a new green, unscaled limb as a child of limb par (or as a
+     base limb if par is -1), and return its index. */
+  {
+    if (count == id.length)
+      grow();
+    int i = count++;
+    limbs[i] = null;
+    id[i] = limbId;
+    parent[i] = par;
+    root[i] = (par < 0) ? i : root[par];
+    level[i] = (par < 0) ? 1 : level[par]+1;
+    axis[i] = ax;
+    angle[i] = ang;
+    radius[i] = rad;
+    length[i] = len;
+    age[i] = 0;
+    numChildren[i] = 0;
+    radiusScale[i] = 1.0;
+    lengthScale[i] = 1.0;
+    colourStep[i] = 0;
+    colour[i] = 0;     // green
+    hasLeaves[i] = false;
+    leafStep[i] = 0;
+    settled[i] = false;
+    unsettled[i] = 0;
+    unsettled[ root[i] ]++;
+    cmd[i] = 0;
+    if (par >= 0)
+      numChildren[par]++;
+    return i;
+  }  // end of add()
+
+
+  public boolean settle(int i)
+  /* Mark limb i as settled, and return true if that makes its
+     tree mature. */
+  {
+    settled[i] = true;
+    return (--unsettled[ root[i] ] == 0);
+  }  // end of settle()
+
+
+  public float getRadius(int i)
+  // the scaled radius
+  {  return radius[i] * (float) radiusScale[i];  }
+
+  public float getLength(int i)
+  // the scaled length
+  {  return length[i] * (float) lengthScale[i];  }
+
+
+
+  private void grow()
+  // double the size of all the arrays
+  {
+    int cap = id.length*2;
+    TreeLimb newLimbs[] = new TreeLimb[cap];
+    System.arraycopy(limbs, 0, newLimbs, 0, count);
+    limbs = newLimbs;
+    id = (long[]) resize(id, new long[cap]);
+    parent = (int[]) resize(parent, new int[cap]);
+    root = (int[]) resize(root, new int[cap]);
+    level = (int[]) resize(level, new int[cap]);
+    axis = (int[]) resize(axis, new int[cap]);
+    angle = (double[]) resize(angle, new double[cap]);
+    radius = (float[]) resize(radius, new float[cap]);
+    length = (float[]) resize(length, new float[cap]);
+    age = (int[]) resize(age, new int[cap]);
+    numChildren = (int[]) resize(numChildren, new int[cap]);
+    radiusScale = (double[]) resize(radiusScale, new double[cap]);
+    lengthScale = (double[]) resize(lengthScale, new double[cap]);
+    colourStep = (int[]) resize(colourStep, new int[cap]);
+    colour = (int[]) resize(colour, new int[cap]);
+    hasLeaves = (boolean[]) resize(hasLeaves, new boolean[cap]);
+    leafStep = (int[]) resize(leafStep, new int[cap]);
+    settled = (boolean[]) resize(settled, new boolean[cap]);
+    unsettled = (int[]) resize(unsettled, new int[cap]);
+    cmd = (byte[]) resize(cmd, new byte[cap]);
+    spawnAxis = (int[]) resize(spawnAxis, new int[MAX_BRANCHES*cap], MAX_BRANCHES*count);
+    spawnAngle = (double[]) resize(spawnAngle, new double[MAX_BRANCHES*cap], MAX_BRANCHES*count);
+  }  // end of grow()
+
+
+  private Object resize(Object from, Object to)
+  {  return resize(from, to, count);  }
+
+  private Object resize(Object from, Object to, int len)
+  {
+    System.arraycopy(from, 0, to, 0, len);
+    return to;
+  }
+
+}  // end of LimbState class
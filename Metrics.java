@@ -0,0 +1,350 @@
+// Metrics.java
+
+/* Metrics is a registry of measurements of what the application does
+   each frame, which can be watched over JMX (e.g. with jconsole), and
+   optionally printed every few seconds. It is switched on by
+   FractalLand3D's --metrics and --metrics-log options.
+
+   There are three kinds of metric, each with a dotted name:
+
+   - a Stat collects samples, such as the time taken by each growth
+     tick, or the limbs grown in it. Every PERIOD secs the samples
+     collected in the period are summarised as their mean, maximum,
+     and number per second;
+
+   - a level is a count which the code adds to and takes away from,
+     such as the number of Shape3D nodes in the scene;
+
+   - a Gauge is read from another object when it is wanted, such as
+     the GrowthScheduler's lag.
+
+   The scene levels count the Shape3Ds and TransformGroups as the
+   trees, terrain chunks, and impostors are added and taken away.
+   Java 3D doesn't say when it sends a texture to the graphics card,
+   so textures.uploads records each new texture put in the scene,
+   which will be sent once (a shared one, such as a LeafAtlas, only
+   once however many shapes use it).
+
+   All of them appear as the attributes of one MBean, named
+   "FractalLand3D:type=Metrics"; a Stat "s" gives the attributes
+   s.mean, s.max, s.perSec and s.count (the samples ever collected).
+
+   When the metrics are off, the code being measured only tests isOn()
+   before doing any work for them, so the cost is a field read. The
+   metrics should be switched on before the scene is built, so the
+   levels see all the nodes that are added.
+*/
+
+import java.lang.management.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.*;
+
+
+public class Metrics
+{
+  private static final int PERIOD = 5;   // secs between summaries
+  private static final String MBEAN_NAME = "FractalLand3D:type=Metrics";
+
+  private static boolean on = false;
+
+  // name --> Stat, AtomicLong (a level), or Gauge; in the order they were made
+  private static LinkedHashMap metrics = new LinkedHashMap();
+
+  // counted by several classes
+  public static final AtomicLong SHAPES = level("scene.shape3ds");
+  public static final AtomicLong TRANSFORM_GROUPS = level("scene.transformGroups");
+  public static final Stat TEXTURE_UPLOADS = stat("textures.uploads");
+
+  private static com.sun.management.ThreadMXBean threadBean = null;   // for allocation counts
+
+
+
+  public interface Gauge
+  {  long getValue();  }
+
+
+
+  public static class Stat
+  // samples, summarised every PERIOD secs
+  {
+    private long num = 0, sum = 0, max = 0;       // in the current period
+    private long totalNum = 0;
+    private double lastMean = 0, lastPerSec = 0;  // for the last period
+    private long lastMax = 0;
+
+    public synchronized void record(long value)
+    {
+      num++;
+      sum += value;
+      if (value > max)
+        max = value;
+    }  // end of record()
+
+    private synchronized void endPeriod(double secs)
+    {
+      totalNum += num;
+      lastMean = (num == 0) ? 0 : ((double) sum)/num;
+      lastMax = max;
+      lastPerSec = num/secs;
+      num = 0;  sum = 0;  max = 0;
+    }  // end of endPeriod()
+
+    public synchronized double getMean()
+    {  return lastMean;  }
+
+    public synchronized long getMax()
+    {  return lastMax;  }
+
+    public synchronized double getPerSec()
+    {  return lastPerSec;  }
+
+    public synchronized long getCount()
+    {  return totalNum + num;  }
+
+  }  // end of Stat class
+
+
+
+  public static boolean isOn()
+  {  return on;  }
+
+
+  public static synchronized Stat stat(String name)
+  // the Stat called name, made if need be
+  {
+    Stat s = (Stat) metrics.get(name);
+    if (s == null) {
+      s = new Stat();
+      metrics.put(name, s);
+    }
+    return s;
+  }  // end of stat()
+
+
+  public static synchronized AtomicLong level(String name)
+  // the level called name, made (at 0) if need be
+  {
+    AtomicLong level = (AtomicLong) metrics.get(name);
+    if (level == null) {
+      level = new AtomicLong();
+      metrics.put(name, level);
+    }
+    return level;
+  }  // end of level()
+
+
+  public static synchronized void gauge(String name, Gauge g)
+  {  metrics.put(name, g);  }
+
+
+
+  public static long getThreadAllocatedBytes()
+  /* The bytes allocated so far by the current thread, or -1 if the
+     JVM can't say. */
+  {
+    if (threadBean == null)
+      return -1;
+    return threadBean.getThreadAllocatedBytes( Thread.currentThread().getId() );
+  }  // end of getThreadAllocatedBytes()
+
+
+
+  public static long percentile(long sorted[], int p)
+  /* The p'th percentile (nearest rank) of the sorted times, in the
+     times' units (ns for HeadlessRenderer and KeyReplay). */
+  {
+    int rank = (int) Math.ceil(p/100.0 * sorted.length);
+    return sorted[ Math.max(rank-1, 0) ];
+  }  // end of percentile()
+
+
+
+  // ------------------------ switching on ---------------------------
+
+
+  public static synchronized void start(final boolean log)
+  /* Switch the metrics on, register the MBean, and start the thread
+     which summarises the Stats (and prints them, if log is true). */
+  {
+    if (on)
+      return;
+
+    ThreadMXBean tmx = ManagementFactory.getThreadMXBean();
+    if ((tmx instanceof com.sun.management.ThreadMXBean) &&
+        ((com.sun.management.ThreadMXBean) tmx).isThreadAllocatedMemorySupported()) {
+      threadBean = (com.sun.management.ThreadMXBean) tmx;
+      threadBean.setThreadAllocatedMemoryEnabled(true);
+    }
+    else
+      System.out.println("Allocation counts are not supported by this JVM");
+
+    try {
+      ManagementFactory.getPlatformMBeanServer().registerMBean(
+                             new MetricsMBean(), new ObjectName(MBEAN_NAME));
+    }
+    catch (Exception e)
+    {  System.out.println("Could not register the metrics MBean: " + e);  }
+
+    Thread t = new DaemonThreads("metrics").newThread( new Runnable() {
+      public void run()
+      {
+        while (true) {
+          try {
+            Thread.sleep(PERIOD*1000L);
+          }
+          catch (InterruptedException e)
+          {  return;  }
+          endPeriod();
+          if (log)
+            System.out.println( summary() );
+        }
+      }
+    });
+    on = true;
+    t.start();
+  }  // end of start()
+
+
+  private static synchronized void endPeriod()
+  {
+    Iterator it = metrics.values().iterator();
+    while (it.hasNext()) {
+      Object m = it.next();
+      if (m instanceof Stat)
+        ((Stat) m).endPeriod(PERIOD);
+    }
+  }  // end of endPeriod()
+
+
+  public static synchronized String summary()
+  /* A line with every metric, e.g.
+       Metrics: growth.tickNanos 812034/2401222 (x 60.0/s), trees.frozen 12, ...
+     where a Stat is shown as its mean/max, and its samples per sec. */
+  {
+    StringBuffer sb = new StringBuffer("Metrics:");
+    Iterator it = metrics.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry e = (Map.Entry) it.next();
+      sb.append(" " + e.getKey() + " ");
+      Object m = e.getValue();
+      if (m instanceof Stat) {
+        Stat s = (Stat) m;
+        sb.append( Math.round(s.getMean()) + "/" + s.getMax() +
+                   " (x " + Math.round(s.getPerSec()*10)/10.0 + "/s)" );
+      }
+      else
+        sb.append( valueOf(m) );
+      if (it.hasNext())
+        sb.append(",");
+    }
+    return sb.toString();
+  }  // end of summary()
+
+
+  private static long valueOf(Object m)
+  // the value of a level or a Gauge (-1 if the Gauge fails)
+  {
+    if (m instanceof AtomicLong)
+      return ((AtomicLong) m).get();
+    try {
+      return ((Gauge) m).getValue();
+    }
+    catch (RuntimeException e)   // the gauge's object changed while being read
+    {  return -1;  }
+  }  // end of valueOf()
+
+
+
+  // ------------------------ the MBean ---------------------------
+
+
+  private static synchronized Object getAttribute(String attr)
+  // the value of an attribute of the MBean, or null if there isn't one
+  {
+    Object m = metrics.get(attr);
+    if ((m instanceof AtomicLong) || (m instanceof Gauge))
+      return Long.valueOf( valueOf(m) );
+
+    int dot = attr.lastIndexOf('.');
+    if (dot == -1)
+      return null;
+    Object s = metrics.get(attr.substring(0, dot));
+    if (!(s instanceof Stat))
+      return null;
+    String field = attr.substring(dot+1);
+    if (field.equals("mean"))
+      return Double.valueOf( ((Stat) s).getMean() );
+    if (field.equals("max"))
+      return Long.valueOf( ((Stat) s).getMax() );
+    if (field.equals("perSec"))
+      return Double.valueOf( ((Stat) s).getPerSec() );
+    if (field.equals("count"))
+      return Long.valueOf( ((Stat) s).getCount() );
+    return null;
+  }  // end of getAttribute()
+
+
+  private static synchronized MBeanAttributeInfo[] getAttributeInfo()
+  {
+    ArrayList infos = new ArrayList();
+    Iterator it = metrics.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry e = (Map.Entry) it.next();
+      String name = (String) e.getKey();
+      if (e.getValue() instanceof Stat) {
+        infos.add( attrInfo(name + ".mean", "double", "mean in the last period") );
+        infos.add( attrInfo(name + ".max", "long", "maximum in the last period") );
+        infos.add( attrInfo(name + ".perSec", "double", "samples per sec in the last period") );
+        infos.add( attrInfo(name + ".count", "long", "all the samples") );
+      }
+      else
+        infos.add( attrInfo(name, "long", "current value") );
+    }
+    return (MBeanAttributeInfo[]) infos.toArray(new MBeanAttributeInfo[infos.size()]);
+  }  // end of getAttributeInfo()
+
+
+  private static MBeanAttributeInfo attrInfo(String name, String type, String desc)
+  {  return new MBeanAttributeInfo(name, type, desc, true, false, false);  }
+
+
+
+  private static class MetricsMBean implements DynamicMBean
+  // the MBean, with a read-only attribute for each metric
+  {
+    public Object getAttribute(String attr) throws AttributeNotFoundException
+    {
+      Object val = Metrics.getAttribute(attr);
+      if (val == null)
+        throw new AttributeNotFoundException(attr);
+      return val;
+    }
+
+    public AttributeList getAttributes(String attrs[])
+    {
+      AttributeList list = new AttributeList();
+      for (int i=0; i < attrs.length; i++) {
+        Object val = Metrics.getAttribute(attrs[i]);
+        if (val != null)
+          list.add( new Attribute(attrs[i], val) );
+      }
+      return list;
+    }
+
+    public void setAttribute(Attribute attr) throws AttributeNotFoundException
+    {  throw new AttributeNotFoundException(attr.getName() + " is read-only");  }
+
+    public AttributeList setAttributes(AttributeList attrs)
+    {  return new AttributeList();  }    // none can be set
+
+    public Object invoke(String op, Object params[], String sig[]) throws ReflectionException
+    {  throw new ReflectionException( new NoSuchMethodException(op) );  }
+
+    public MBeanInfo getMBeanInfo()
+    {  return new MBeanInfo(Metrics.class.getName(), "FractalLand3D metrics",
+                            getAttributeInfo(), null, null, null);  }
+
+  }  // end of MetricsMBean class
+
+}  // end of Metrics class
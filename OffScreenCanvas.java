@@ -0,0 +1,53 @@
+// OffScreenCanvas.java
+
+/* OffScreenCanvas makes the offscreen Canvas3Ds used by
+   HeadlessRenderer (for the whole scene) and ImpostorRenderer
+   (for the pictures of the trees).
+
+   The canvas's Screen3D is given the size of its buffer, and a
+   physical size as if it had 90 pixels to the inch, since an offscreen
+   screen has no size of its own. The buffer can be read, so the
+   drawn image can be fetched with getOffScreenBuffer().getImage().
+
+   An offscreen canvas still needs an OpenGL context, so making one
+   throws an exception or an error (e.g. HeadlessException, or an
+   UnsatisfiedLinkError if the Java 3D natives are missing) when
+   there is no display; the callers catch Throwable.
+*/
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import javax.media.j3d.*;
+
+
+public class OffScreenCanvas
+{
+  private static final double METRES_PER_PIXEL = 0.0254/90.0;   // 90 dpi
+
+
+  public static Canvas3D make(int size, boolean withAlpha)
+  // a size*size offscreen Canvas3D, with an RGBA buffer if withAlpha is true
+  {
+    GraphicsConfigTemplate3D template = new GraphicsConfigTemplate3D();
+    GraphicsConfiguration gc = GraphicsEnvironment.getLocalGraphicsEnvironment().
+                          getDefaultScreenDevice().getBestConfiguration(template);
+
+    Canvas3D c3d = new Canvas3D(gc, true);    // offscreen
+    Screen3D screen = c3d.getScreen3D();
+    screen.setSize(size, size);
+    screen.setPhysicalScreenWidth(METRES_PER_PIXEL * size);
+    screen.setPhysicalScreenHeight(METRES_PER_PIXEL * size);
+
+    ImageComponent2D buffer;
+    if (withAlpha)
+      buffer = new ImageComponent2D(ImageComponent.FORMAT_RGBA,
+                      new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB));
+    else
+      buffer = new ImageComponent2D(ImageComponent.FORMAT_RGB,
+                      new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB));
+    buffer.setCapability(ImageComponent2D.ALLOW_IMAGE_READ);
+    c3d.setOffScreenBuffer(buffer);
+    return c3d;
+  }  // end of make()
+
+}  // end of OffScreenCanvas class
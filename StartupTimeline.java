@@ -0,0 +1,133 @@
+// StartupTimeline.java
+
+/* A StartupTimeline records when each stage of building the scene
+   started and finished, and on which thread, so the time to the
+   first frame can be seen, and the stages worth speeding up found.
+
+   A stage run on the current thread is timed by noting System.nanoTime()
+   before it, and passing that to done() after it. submit(pool, name,
+   callable) runs a stage on a pool, and returns a Future; get() waits
+   for a Future's result.
+
+   print() lists the stages in the order they started, with their
+   start and end times in ms from when the timeline was made, and a
+   bar showing when each one ran:
+
+     Startup timeline (ms):
+        0 -   312  main              |######                |  universe
+      312 -  1130  scene builder     |      ################|  landscape
+      312 -   520  scene builder     |      ####            |  tree images
+*/
+
+import java.util.*;
+import java.util.concurrent.*;
+
+
+public class StartupTimeline
+{
+  private static final int BAR_LEN = 22;   // chars in the longest bar
+
+  private long startTime;
+  private ArrayList stages;    // of Object[] {name, thread, start ns, end ns}
+
+
+  public StartupTimeline()
+  {
+    startTime = System.nanoTime();
+    stages = new ArrayList();
+  }
+
+
+  public void done(String name, long start)
+  // record a stage which ran on this thread from start (ns) until now
+  {  record(name, start, System.nanoTime());  }
+
+
+  public Future submit(ExecutorService pool, final String name, final Callable stage)
+  // run stage on the pool
+  {
+    return pool.submit( new Callable() {
+      public Object call() throws Exception
+      {
+        long start = System.nanoTime();
+        try {
+          return stage.call();
+        }
+        finally {
+          done(name, start);
+        }
+      }
+    });
+  }  // end of submit()
+
+
+  public static Object get(Future f)
+  /* Wait for a submitted stage, and return its result. If the
+     stage failed, its exception is thrown here. */
+  {
+    try {
+      return f.get();
+    }
+    catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException)
+        throw (RuntimeException) e.getCause();
+      throw new RuntimeException(e.getCause());
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    }
+  }  // end of get()
+
+
+  private synchronized void record(String name, long start, long end)
+  {  stages.add( new Object[] { name, Thread.currentThread().getName(),
+                                Long.valueOf(start), Long.valueOf(end) });  }
+
+
+
+  public synchronized void print()
+  {
+    Collections.sort(stages, new Comparator() {
+      public int compare(Object a, Object b)
+      {  return ((Long) ((Object[]) a)[2]).compareTo( (Long) ((Object[]) b)[2] );  }
+    });
+    long last = startTime;
+    for (int i=0; i < stages.size(); i++)
+      last = Math.max(last, ((Long) ((Object[]) stages.get(i))[3]).longValue());
+    double nsPerChar = Math.max(1, last - startTime) / (double) BAR_LEN;
+
+    System.out.println("Startup timeline (ms):");
+    for (int i=0; i < stages.size(); i++) {
+      Object[] stage = (Object[]) stages.get(i);
+      long start = ((Long) stage[2]).longValue() - startTime;
+      long end = ((Long) stage[3]).longValue() - startTime;
+      StringBuffer bar = new StringBuffer();
+      for (int c=0; c < BAR_LEN; c++) {
+        boolean on = (c+1)*nsPerChar > start && c*nsPerChar < end;
+        bar.append(on ? '#' : ' ');
+      }
+      System.out.println( format(start/1000000, 6) + " - " + format(end/1000000, 5) +
+                          "  " + pad((String) stage[1], 16) + "  |" + bar + "|  " + stage[0]);
+    }
+  }  // end of print()
+
+
+  private static String format(long n, int width)
+  // n, right-justified in width chars
+  {
+    String s = Long.toString(n);
+    while (s.length() < width)
+      s = " " + s;
+    return s;
+  }
+
+  private static String pad(String s, int width)
+  // s, left-justified in width chars
+  {
+    while (s.length() < width)
+      s = s + " ";
+    return s;
+  }
+
+}  // end of StartupTimeline class
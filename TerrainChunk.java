@@ -0,0 +1,97 @@
+// TerrainChunk.java
+
+/* A TerrainChunk is one square tile of the landscape, CHUNK_LEN cells
+   on a side (see Landscape). It holds the tile's FractalMesh and a
+   BranchGroup with the tile's TexturedPlanes at every level of detail.
+
+   chunkBG can be detached, so Landscape can take the chunk out of the
+   scene when the viewer moves away from it, and put it back if the
+   viewer returns before the chunk has been evicted.
+
+   If the mesh's heights are changed, updateHeights() reloads the
+   floor's shared vertices (see TerrainVertices) in place.
+
+   lastUsed records the last Landscape update in which the chunk was
+   near the viewer; it decides which chunks are evicted first.
+*/
+
+import java.util.ArrayList;
+import javax.media.j3d.*;
+
+
+public class TerrainChunk
+{
+  private int chunkX, chunkZ;    // the chunk's position in the grid of chunks
+  private FractalMesh mesh;
+  private BranchGroup chunkBG;
+  private ArrayList planes;    // the TexturedPlanes of every level of detail
+  private boolean isAttached = false;
+  private long lastUsed = 0;
+
+
+  public TerrainChunk(int cx, int cz, FractalMesh fm, BranchGroup bg,
+                      ArrayList tps)
+  {
+    chunkX = cx;
+    chunkZ = cz;
+    mesh = fm;
+    chunkBG = bg;
+    chunkBG.setCapability(BranchGroup.ALLOW_DETACH);
+    planes = tps;
+  }  // end of TerrainChunk()
+
+
+  public int getChunkX()
+  {  return chunkX;  }
+
+  public int getChunkZ()
+  {  return chunkZ;  }
+
+  public FractalMesh getMesh()
+  {  return mesh;  }
+
+  public BranchGroup getChunkBG()
+  {  return chunkBG;  }
+
+
+  public boolean isAttached()
+  {  return isAttached;  }
+
+
+  public void attach(BranchGroup floorBG)
+  {
+    if (!isAttached) {
+      floorBG.addChild(chunkBG);
+      isAttached = true;
+      if (Metrics.isOn())
+        Metrics.SHAPES.addAndGet(planes.size());
+    }
+  }  // end of attach()
+
+
+  public void detach()
+  {
+    if (isAttached) {
+      chunkBG.detach();
+      isAttached = false;
+      if (Metrics.isOn())
+        Metrics.SHAPES.addAndGet(-planes.size());
+    }
+  }  // end of detach()
+
+
+  public void updateHeights()
+  // reload the floor's vertices after the mesh's heights have changed
+  {
+    for (int i=0; i < planes.size(); i++)
+      ((TexturedPlanes) planes.get(i)).updateHeights();
+  }  // end of updateHeights()
+
+
+  public long getLastUsed()
+  {  return lastUsed;  }
+
+  public void setLastUsed(long tick)
+  {  lastUsed = tick;  }
+
+}  // end of TerrainChunk class
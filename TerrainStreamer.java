@@ -0,0 +1,54 @@
+// TerrainStreamer.java
+
+/* TerrainStreamer is a time-based Behavior which is triggered
+   every TIME_DELAY milliseconds.
+
+   It reads the viewer's (x,z) position from the viewpoint's
+   TransformGroup (the one moved by KeyBehavior), and passes it to
+   Landscape.update(), which attaches the terrain chunks that have
+   been built around the viewer, asks for new ones, and detaches
+   and evicts distant ones.
+
+   Running in a Behavior means that all the changes to the live
+   floor happen on the Java 3D behaviour thread.
+*/
+
+import java.util.Enumeration;
+import javax.media.j3d.*;
+import javax.vecmath.*;
+
+
+public class TerrainStreamer extends Behavior
+{
+  private final static int TIME_DELAY = 250;  //ms
+
+  private WakeupCondition timeOut;
+  private Landscape land;
+  private TransformGroup viewerTG;
+
+  // for repeated calcs
+  private Transform3D t3d = new Transform3D();
+  private Vector3d posn = new Vector3d();
+
+
+  public TerrainStreamer(Landscape ld, TransformGroup vTG)
+  {
+    land = ld;
+    viewerTG = vTG;
+    timeOut = new WakeupOnElapsedTime(TIME_DELAY);
+  }
+
+
+  public void initialize()
+  {  wakeupOn( timeOut );  }
+
+
+  public void processStimulus( Enumeration criteria )
+  { // ignore criteria
+    viewerTG.getTransform(t3d);
+    t3d.get(posn);
+    land.update(posn.x, posn.z);
+    wakeupOn( timeOut );
+  } // end of processStimulus()
+
+}  // end of TerrainStreamer class
@@ -0,0 +1,133 @@
+// TerrainVertices.java
+
+/* The vertex data for the floor of one chunk: a single float array
+   with an entry for every grid point of the chunk's FractalMesh, in
+   the same row-major order as the heightfield (vertex z*numPts + x).
+
+   Each vertex is VERTEX_SIZE floats, interleaved in the order that
+   Java 3D expects for a BY_REFERENCE | INTERLEAVED GeometryArray:
+   the texture coordinate (s,t), the normal (x,y,z), then the
+   coordinate (x,y,z).
+
+   All of a chunk's TexturedPlanes use this array by reference, each
+   with its own triangle strips of indices into it. So a grid point on
+   the border between two textures is stored once, and Java 3D does
+   not keep its own copy of the vertices.
+
+   After the grid points come the skirt vertices: a copy of each point
+   on the four edges of the mesh, SKIRT_DEPTH lower down. TexturedPlanes
+   hangs a skirt of triangles from each edge of the chunk, so the cracks
+   between neighbouring chunks drawn at different levels of detail
+   show the skirts rather than the sky.
+
+   If the mesh's heights change, loadVertex() rewrites a vertex's height
+   and normal in place. TexturedPlanes.updateHeights() calls it from
+   inside GeometryArray.updateData(), as Java 3D requires for by
+   reference data.
+*/
+
+public class TerrainVertices
+{
+  public static final int VERTEX_SIZE = 8;   // floats per vertex
+
+  // the edges of the mesh
+  public static final int BACK = 0;     // z == 0
+  public static final int FRONT = 1;    // z == worldLen
+  public static final int LEFT = 2;     // x == 0
+  public static final int RIGHT = 3;    // x == worldLen
+
+  private static final float SKIRT_DEPTH = 2.0f;
+
+  // offsets of the vertex parts
+  private static final int TEX_COORD = 0;
+  private static final int NORMAL = 2;
+  private static final int COORD = 5;
+
+  private FractalMesh mesh;
+  private int numPts;       // grid points along a side of the mesh
+  private int numGrid;      // numPts*numPts; the skirt vertices follow
+  private float data[];     // the interleaved vertices
+
+
+  public TerrainVertices(FractalMesh fm)
+  {
+    mesh = fm;
+    numPts = mesh.getWorldLen()+1;
+    numGrid = numPts*numPts;
+    data = new float[getNumVerts()*VERTEX_SIZE];
+
+    int xOrigin = mesh.getXOrigin();
+    int zOrigin = mesh.getZOrigin();
+    int v = 0;
+    for (int z=0; z < numPts; z++)
+      for (int x=0; x < numPts; x++) {
+        int i = v*VERTEX_SIZE;
+        /* the grid position is the texture coordinate, so the texture
+           repeats once per cell */
+        data[i+TEX_COORD] = x;
+        data[i+TEX_COORD+1] = -z;
+        data[i+COORD] = xOrigin + x;
+        data[i+COORD+2] = zOrigin + z;
+        loadVertex(v);
+        v++;
+      }
+
+    // a skirt vertex is below its edge point
+    for (int edge=BACK; edge <= RIGHT; edge++)
+      for (int i=0; i < numPts; i++) {
+        v = skirtVertex(edge, i);
+        System.arraycopy(data, edgeVertex(edge, i)*VERTEX_SIZE,
+                         data, v*VERTEX_SIZE, VERTEX_SIZE);
+        loadVertex(v);
+      }
+  }  // end of TerrainVertices()
+
+
+  public FractalMesh getMesh()
+  {  return mesh;  }
+
+  public int getNumPts()
+  {  return numPts;  }
+
+  public int getNumVerts()
+  {  return numGrid + 4*numPts;  }
+
+  public float[] getData()
+  // the array itself, for setInterleavedVertices()
+  {  return data;  }
+
+
+  public int edgeVertex(int edge, int i)
+  // the grid point i steps along the edge (in increasing x or z)
+  {
+    switch (edge) {
+      case BACK:  return i;
+      case FRONT: return (numPts-1)*numPts + i;
+      case LEFT:  return i*numPts;
+      default:    return i*numPts + numPts-1;   // RIGHT
+    }
+  }  // end of edgeVertex()
+
+
+  public int skirtVertex(int edge, int i)
+  // the skirt vertex below edgeVertex(edge, i)
+  {  return numGrid + edge*numPts + i;  }
+
+
+  public void loadVertex(int v)
+  // copy the height and normal of vertex v from the mesh
+  {
+    int gv = v;
+    float drop = 0;
+    if (v >= numGrid) {    // a skirt vertex
+      gv = edgeVertex((v - numGrid)/numPts, (v - numGrid)%numPts);
+      drop = SKIRT_DEPTH;
+    }
+    int z = gv / numPts;
+    int x = gv % numPts;
+    int i = v*VERTEX_SIZE;
+    data[i+COORD+1] = mesh.getHeight(z, x) - drop;
+    mesh.getVertexNormal(z, x, data, i+NORMAL);
+  }  // end of loadVertex()
+
+}  // end of TerrainVertices class
@@ -0,0 +1,170 @@
+// TextureCache.java
+
+/* TextureCache loads the images and textures used by the application,
+   and keeps them, so each file is only decoded once however many
+   times it is asked for.
+
+   getImage() returns a file's ImageComponent2D (as used for the
+   leaves of the trees), and getTexture() a Texture made from a file
+   with some TextureLoader flags (as used for the floor). An entry is
+   keyed by the file name and the flags, and all the callers asking
+   for the same key share the same object.
+
+   The images are decoded, or read from the files saved by
+   ImageDiskCache on an earlier run, as TextureLoader would make them.
+
+   The entries are held by SoftReferences, so an entry that isn't in
+   the scene any more can be thrown away if memory runs short (and
+   will be loaded again if it's asked for).
+
+   preloadImages() and preloadTextures() decode a list of files in
+   parallel, and wait until they are all done. The later get calls for
+   them then find them in the cache.
+
+   getHits() and getMisses() count how many get calls found their
+   entry already loaded, and how many had to load it.
+*/
+
+import java.lang.ref.SoftReference;
+import java.util.*;
+import java.util.concurrent.*;
+import javax.media.j3d.*;
+import com.sun.j3d.utils.image.TextureLoader;
+
+
+public class TextureCache
+{
+  private static HashMap cache = new HashMap();   // key --> SoftReference to the entry
+  private static int hits = 0;
+  private static int misses = 0;
+
+
+  public static ImageComponent2D getImage(String fnm)
+  /* The image in fnm, or null if it can't be loaded. It can be read,
+     so LeafAtlas can copy it. */
+  {
+    String key = "image:" + fnm;
+    ImageComponent2D im = (ImageComponent2D) lookUp(key);
+    if (im != null)
+      return im;
+
+    im = ImageDiskCache.loadImage(fnm);
+    if (im == null) {
+      System.out.println("Load failed for texture in : " + fnm);
+      return null;
+    }
+    im.setCapability(ImageComponent2D.ALLOW_SIZE_READ);
+    im.setCapability(ImageComponent2D.ALLOW_IMAGE_READ);
+    return (ImageComponent2D) store(key, im);
+  }  // end of getImage()
+
+
+  public static Texture getTexture(String fnm, int flags)
+  /* The texture made from fnm by a TextureLoader with flags (scaled to
+     a power of 2 on each side, as Java 3D needs), or null if it can't
+     be loaded. A mipmapped texture uses all its levels. */
+  {
+    String key = "texture:" + flags + ":" + fnm;
+    Texture texture = (Texture) lookUp(key);
+    if (texture != null)
+      return texture;
+
+    ImageComponent2D ims[] = ImageDiskCache.loadTexture(fnm, flags);
+    if (ims == null) {
+      System.out.println("Load failed for texture in : " + fnm);
+      return null;
+    }
+    int mipMode = (ims.length > 1) ? Texture.MULTI_LEVEL_MIPMAP : Texture.BASE_LEVEL;
+    texture = new Texture2D(mipMode, ImageDiskCache.getFormat(ims),
+                            ims[0].getWidth(), ims[0].getHeight());
+    for (int i=0; i < ims.length; i++)
+      texture.setImage(i, ims[i]);
+    if (ims.length > 1)
+      texture.setMinFilter(Texture.MULTI_LEVEL_LINEAR);  // NICEST
+    if (Metrics.isOn())
+      Metrics.TEXTURE_UPLOADS.record(1);
+    return (Texture) store(key, texture);
+  }  // end of getTexture()
+
+
+  private static synchronized Object lookUp(String key)
+  // the loaded entry for key, or null (counted as a hit or a miss)
+  {
+    SoftReference ref = (SoftReference) cache.get(key);
+    Object entry = (ref == null) ? null : ref.get();
+    if (entry != null)
+      hits++;
+    else
+      misses++;
+    return entry;
+  }  // end of lookUp()
+
+
+  private static synchronized Object store(String key, Object entry)
+  /* Add the newly loaded entry, unless another thread has just
+     added one for the same key, in which case that one is used,
+     so there is only ever one copy. */
+  {
+    SoftReference ref = (SoftReference) cache.get(key);
+    Object current = (ref == null) ? null : ref.get();
+    if (current != null)
+      return current;
+    cache.put(key, new SoftReference(entry));
+    return entry;
+  }  // end of store()
+
+
+
+  // ------------------------ preloading ---------------------------
+
+
+  public static void preloadImages(String fnms[])
+  {  preload(fnms, -1);  }
+
+  public static void preloadTextures(String fnms[], int flags)
+  {  preload(fnms, flags);  }
+
+
+  private static void preload(String fnms[], final int flags)
+  /* Load the files in parallel (as images if flags is -1, otherwise
+     as textures), and wait for them all to finish. */
+  {
+    ExecutorService loaders = Executors.newFixedThreadPool(
+                                 Runtime.getRuntime().availableProcessors(),
+                                 new DaemonThreads("texture loader"));
+    ArrayList loads = new ArrayList();
+    for (int i=0; i < fnms.length; i++) {
+      final String fnm = fnms[i];
+      loads.add( Executors.callable( new Runnable() {
+        public void run()
+        {
+          if (flags == -1)
+            getImage(fnm);
+          else
+            getTexture(fnm, flags);
+        }
+      }));
+    }
+    try {
+      loaders.invokeAll(loads);
+    }
+    catch (InterruptedException e)
+    {  Thread.currentThread().interrupt();  }
+    loaders.shutdown();
+  }  // end of preload()
+
+
+
+  // ------------------------ statistics ---------------------------
+
+
+  public static synchronized int getHits()
+  {  return hits;  }
+
+  public static synchronized int getMisses()
+  {  return misses;  }
+
+  public static String getStats()
+  {  return "Texture cache: " + getHits() + " hits, " + getMisses() + " misses";  }
+
+}  // end of TextureCache class
@@ -1,38 +1,69 @@
-
 // TexturedPlanes.java
 // Andrew Davison, April 2005, ad@fivedots.coe.psu.ac.th
 
 /* TexturedPlanes contains many quads, each within a certain height
    range. They will all be assigned the same texture.
 
-   In order to obtain lighting effects, we must calculate
-   the normals (and mix the texture with a Material). We
-   also stripify to improve the performance.
-
-   Very similar to TexturedPlanes in /Maze3D but now the normals
-   are calculated using GeometryInfo and NormalGenerator. 
-
-   Picking is enabled so that getLandHeight() from Landscape can 
+   The quads are blocks of step*step cells of a FractalMesh, given by
+   their indices (bz*blocksLen + bx, in increasing order, where the
+   mesh is blocksLen blocks on a side). A step of 1 draws the mesh at
+   full detail; Landscape makes a TexturedPlanes for each level of
+   detail with steps of 1, 2, 4, ... (geomipmapping). Since the mesh
+   is a regular grid, the geometry is built directly from its heightfield:
+
+   - the vertices are the chunk's TerrainVertices, a single
+     interleaved float array shared by all the chunk's TexturedPlanes
+     (at every level) and used by reference, so each grid point is
+     stored once;
+
+   - the vertex normals come from FractalMesh.getVertexNormal(),
+     which takes central differences over the heightfield. That gives
+     the same smooth shading as the old GeometryInfo/NormalGenerator
+     code (with its 150 degree crease angle) for a fraction of the time
+     and garbage;
+
+   - a row of neighbouring blocks becomes one triangle strip of indices
+     into the vertices, split along the same PR diagonals as
+     FractalMesh.getHeightAt(), so the strips are made without a
+     Stripifier;
+
+   - blocks on the edge of the mesh also get a strip of skirt, facing
+     outwards and hanging down to the TerrainVertices skirt vertices.
+     A neighbouring chunk at a different level of detail doesn't meet
+     this one exactly along their shared edge, and the skirts fill
+     the cracks.
+
+   If the mesh's heights are changed, updateHeights() reloads the
+   vertices in place, without rebuilding the shape.
+
+   In order to obtain lighting effects, the texture is mixed with
+   a Material (see makeAppearance()). The Appearance can be shared
+   by every TexturedPlanes with the same texture.
+
+   Picking is enabled so that pickLandHeight() from Landscape can
    find the floor's height at any point.
 */
 
-import java.util.ArrayList;
-
 import javax.media.j3d.*;
 import javax.vecmath.*;
-import com.sun.j3d.utils.geometry.*;
 import com.sun.j3d.utils.image.*;
 import com.sun.j3d.utils.picking.PickTool;
 
 
-public class TexturedPlanes extends Shape3D 
+public class TexturedPlanes extends Shape3D implements GeometryUpdater
 {
+  private TerrainVertices verts;
+  private int indices[];     // the strips' vertex indices
 
-  public TexturedPlanes(ArrayList coords, String fnm) 
+  // used while the strips are being made
+  private int stripCounts[];
+  private int pos, strip;
+
+
+  public TexturedPlanes(TerrainVertices tv, int blocks[], int step, Appearance app)
   {
-    System.out.println(fnm + "; numPoints: " + coords.size());
-    createGeometry(coords);
-    createAppearance(fnm);
+    createGeometry(tv, blocks, step);
+    setAppearance(app);
 
 	// set the picking capabilities so that intersection
     // coords can be extracted after the shape is picked
@@ -40,51 +71,148 @@ public class TexturedPlanes extends Shape3D
   } // end of TexturedPlanes()
 
 
-  private void createGeometry(ArrayList coords)
+  void createGeometry(TerrainVertices tv, int blocks[], int step)
+  /* Build an IndexedTriangleStripArray for the blocks, which uses
+     tv's vertices by reference.
+     Package access, so it can be benchmarked. */
   {
-    int numPoints = coords.size();
-    QuadArray plane = new QuadArray(numPoints, 
-						GeometryArray.COORDINATES | 
+    verts = tv;
+    int numPts = tv.getNumPts();
+    int blocksLen = (numPts-1)/step;
+
+    /* room for the most strips and indices there could be: a strip
+       per block, and a skirt strip for each block on each edge */
+    int maxStrips = blocks.length + 4*blocksLen;
+    indices = new int[4*maxStrips];
+    stripCounts = new int[maxStrips];
+    pos = 0;
+    strip = -1;
+
+    /* the surface strips: S, P, then R, Q for each block along the row,
+       which makes the triangles SPR and RPQ (anti-clockwise from above) */
+    boolean used[] = new boolean[blocksLen*blocksLen];
+    for (int i=0; i < blocks.length; i++) {
+      used[ blocks[i] ] = true;
+      int s = (blocks[i]/blocksLen)*step*numPts + (blocks[i]%blocksLen)*step;
+      if ((i == 0) || (blocks[i] != blocks[i-1]+1) || (blocks[i]%blocksLen == 0))
+        startStrip(s, s + step*numPts);
+      addToStrip(s + step, s + step*numPts + step);
+    }
+
+    // the skirts along each edge, for the blocks on that edge
+    for (int edge=TerrainVertices.BACK; edge <= TerrainVertices.RIGHT; edge++)
+      addSkirts(edge, used, blocksLen, step);
+
+    indices = shrink(indices, pos);
+    stripCounts = shrink(stripCounts, strip+1);
+
+    IndexedTriangleStripArray plane =
+          new IndexedTriangleStripArray(tv.getNumVerts(),
+						GeometryArray.COORDINATES |
 						GeometryArray.TEXTURE_COORDINATE_2 |
-						GeometryArray.NORMALS );
-
-    // set coordinates
-    Point3d[] points = new Point3d[numPoints];
-    coords.toArray( points );
-
-    // assign texture coords to each quad
-    // counter-clockwise, from bottom left
-    TexCoord2f[] tcoords = new TexCoord2f[numPoints];
-    for(int i=0; i < numPoints; i=i+4) {
-      tcoords[i] = new TexCoord2f(0.0f, 0.0f);   // for 1 point
-      tcoords[i+1] = new TexCoord2f(1.0f, 0.0f);
-      tcoords[i+2] = new TexCoord2f(1.0f, 1.0f);
-      tcoords[i+3] = new TexCoord2f(0.0f, 1.0f);
+						GeometryArray.NORMALS |
+						GeometryArray.BY_REFERENCE |
+						GeometryArray.INTERLEAVED |
+						GeometryArray.USE_COORD_INDEX_ONLY,
+						indices.length, stripCounts);
+    plane.setCapability(GeometryArray.ALLOW_REF_DATA_READ);   // for picking
+    plane.setCapability(GeometryArray.ALLOW_REF_DATA_WRITE);  // for updateHeights()
+    plane.setInterleavedVertices( tv.getData() );
+    plane.setCoordinateIndices(0, indices);
+    stripCounts = null;
+
+    setGeometry(plane);
+  }  // end of createGeometry()
+
+
+  private void addSkirts(int edge, boolean used[], int blocksLen, int step)
+  /* Add a skirt strip for each run of used blocks along the edge.
+     The order of the top and skirt vertices in the strip makes
+     the triangles face out of the mesh. */
+  {
+    boolean skirtFirst = (edge == TerrainVertices.BACK) ||
+                         (edge == TerrainVertices.RIGHT);
+    boolean inRun = false;
+    for (int b=0; b < blocksLen; b++) {
+      if (!used[ edgeBlock(edge, b, blocksLen) ]) {
+        inRun = false;
+        continue;
+      }
+      if (!inRun) {
+        addSkirtPair(edge, b*step, skirtFirst, true);
+        inRun = true;
+      }
+      addSkirtPair(edge, (b+1)*step, skirtFirst, false);
+    }
+  }  // end of addSkirts()
+
+
+  private int edgeBlock(int edge, int b, int blocksLen)
+  // the index of the b-th block along the edge
+  {
+    switch (edge) {
+      case TerrainVertices.BACK:  return b;
+      case TerrainVertices.FRONT: return (blocksLen-1)*blocksLen + b;
+      case TerrainVertices.LEFT:  return b*blocksLen;
+      default:                    return b*blocksLen + blocksLen-1;   // RIGHT
     }
+  }  // end of edgeBlock()
+
 
-    // create geometryInfo
-    GeometryInfo gi = new GeometryInfo(GeometryInfo.QUAD_ARRAY);
-    gi.setCoordinates(points);
-    gi.setTextureCoordinateParams(1, 2); // one set of 2D texels
-    gi.setTextureCoordinates(0, tcoords);
+  private void addSkirtPair(int edge, int i, boolean skirtFirst, boolean isStart)
+  // add the edge point i and the skirt vertex below it
+  {
+    int top = verts.edgeVertex(edge, i);
+    int skirt = verts.skirtVertex(edge, i);
+    int v1 = skirtFirst ? skirt : top;
+    int v2 = skirtFirst ? top : skirt;
+    if (isStart)
+      startStrip(v1, v2);
+    else
+      addToStrip(v1, v2);
+  }  // end of addSkirtPair()
+
+
+  private void startStrip(int v1, int v2)
+  {
+    strip++;
+    stripCounts[strip] = 0;
+    addToStrip(v1, v2);
+  }
 
-    // calculate normals with very smooth edges
-    NormalGenerator ng = new NormalGenerator();
-    ng.setCreaseAngle( (float) Math.toRadians(150));   // default is 44
-    ng.generateNormals(gi);
+  private void addToStrip(int v1, int v2)
+  {
+    indices[pos++] = v1;
+    indices[pos++] = v2;
+    stripCounts[strip] += 2;
+  }
 
-    // stripifier to use triangle strips
-    Stripifier st = new Stripifier();
-    st.stripify(gi);
 
-    // extract and use GeometryArray
-    setGeometry( gi.getGeometryArray() );
-  }  // end of createGeometry()
+  private int[] shrink(int a[], int len)
+  {
+    int b[] = new int[len];
+    System.arraycopy(a, 0, b, 0, len);
+    return b;
+  }
+
+
+  public void updateHeights()
+  // reload this shape's vertices from the mesh's heights
+  {  ((GeometryArray) getGeometry()).updateData(this);  }
+
 
+  public void updateData(Geometry geometry)
+  /* Called by Java 3D from updateData(), when it is safe to change
+     the by reference vertices. A vertex may be reloaded more than once
+     (and by the other TexturedPlanes sharing the array), which is harmless. */
+  {
+    for (int i=0; i < indices.length; i++)
+      verts.loadVertex( indices[i] );
+  }  // end of updateData()
 
 
 
-  private void createAppearance(String fnm)
+  public static Appearance makeAppearance(String fnm)
   // combine the texture with a lit white surface
   {
     Appearance app = new Appearance();
@@ -94,13 +222,8 @@ public class TexturedPlanes extends Shape3D
     ta.setTextureMode(TextureAttributes.MODULATE);
     app.setTextureAttributes(ta);
 
-    // load and set the texture; generate mipmaps for it
-    TextureLoader loader = new TextureLoader(fnm, 
-							TextureLoader.GENERATE_MIPMAP, null);
-
-    Texture2D texture = (Texture2D) loader.getTexture();
-    texture.setMinFilter(Texture2D.MULTI_LEVEL_LINEAR);  // NICEST
-
+    // get the texture, with mipmaps, from the cache
+    Texture texture = TextureCache.getTexture(fnm, TextureLoader.GENERATE_MIPMAP);
     app.setTexture(texture);      // set the texture
 
     // set a default white material
@@ -108,8 +231,8 @@ public class TexturedPlanes extends Shape3D
     mat.setLightingEnable(true);    // lighting switched on
     app.setMaterial(mat);
 
-    setAppearance(app);
-  }  // end of createAppearance()
+    return app;
+  }  // end of makeAppearance()
 
 
 } // end of TexturedPlanes class
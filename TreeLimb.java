@@ -4,7 +4,7 @@
 
 /*   The scene graph for a tree limb contains:
 
-    startBG --->orientTG --->scaleTG ---> baseTG ---> cylinder
+    startBG --->orientTG --->scaleTG ---> limbShape
                          |
                          ---> endLimbTG [ --> leafBG --> ImagesCsSeries 
                                           --> leafBG --> ImagesCsSeries  ]
@@ -21,14 +21,20 @@
             We keep the x- and z- scaling the same (they represent the radius
             of the cylinder), while the y-axis is the length.
 
-   baseTG: the (0,0,0) point for Java 3D's Cylinder is its middle, so baseTG lifts
-           it up the y-axis by length/2, so (0,0,0) is now the center of its base.
+   limbShape: a Shape3D for the cylinder. Every limb used to have its own
+              Cylinder, with its own geometry, Appearance and Material, which
+              came to tens of thousands of them. Now all the limbs share one
+              cylinder geometry, of radius 1 and length 1 with its base at
+              (0,0,0), and scaleTG scales it to the limb's radius and length.
+              The limb's colour is one of a small palette of shared Appearances
+              (the steps from green to brown, see GrowthRules), and a change
+              of colour just switches the shape to a different Appearance.
 
    endLimbTG is an offset of _almost_ the cylinder's length. It is a little less than
    the length, so that child limbs will overlap the parent limb. This partly hides 
    any gaps between the limbs when a child limb is orientated at an extreme angle.
 
-   endLimbTG is not attached to Cylinder since that would make it prone to scaling,
+   endLimbTG is not attached to scaleTG since that would make it prone to scaling,
    which would also affect any child limbs attached to endLimbTG.
 
    If leaves are added to a limb, then _two_ branches are added to endLimbTG. Both
@@ -37,6 +43,22 @@
    The ImagesCsSeries nodes are 'screens' which show a picture of leaves. The pictures
    can be adjusted at run time, creating various animation effects, in this case the
    illusion of leaves growing.
+
+   When a whole tree has stopped growing, TreePopulation freezes it: the
+   tree's limbs are merged into a single FrozenTree shape, the leaf
+   BranchGroups are moved over to it by moveLeaves(), and replaceTree()
+   swaps the base limb's startBG for the FrozenTree. So startBG and the
+   leafBGs can be detached, and endLimbTG's children can be changed.
+
+   A TreeLimb is only the scene graph for a limb. Its growth state (scale,
+   colour, age, children, ...) is kept in TreePopulation's LimbState arrays,
+   and TreePopulation calls setScale(), setAppearance() and the leaf methods
+   when that state changes.
+
+   Each limb has an id which TreePopulation uses as the entity id for its
+   WorldRandom numbers. A base limb is given its tree's id, and a child's id is
+   a hash of its parent's id and its position among the parent's children, so
+   the ids do not depend on the order in which limbs are made.
 */
 
 //CLASS ADDED BY TONY AND JANI TO MAKE TREES WORK
@@ -45,17 +67,15 @@
 import javax.media.j3d.*;
 import javax.vecmath.*;
 import java.util.*;
-import com.sun.j3d.utils.geometry.Cylinder;
 
 
 public class TreeLimb
 {
-  private static final double OVERLAP = 0.1;     
+  static final double OVERLAP = 0.1;     
        // percentage overlap of children limbs with this limb
 
-  // no. of steps to change the starting colour (green) to brown
-  private final static int MAX_COLOUR_STEP = 15;
-  
+  private static final int CYL_SIDES = 15;   // the same as Java 3D's Cylinder
+
   // axis constants
   private final static int X_AXIS = 0;
   private final static int Y_AXIS = 1;
@@ -66,13 +86,17 @@ public class TreeLimb
   // private final static Color3f specular = new Color3f(1.0f, 1.0f, 1.0f);
 
   /* green is the starting colour for a limb, brown its final colour */
-  private final static Color3f green = new Color3f(0.0f, 1.0f, 0.1f); 
-  private final static Color3f brown = new Color3f(0.35f, 0.29f, 0.0f);
+  final static Color3f green = new Color3f(0.0f, 1.0f, 0.1f); 
+  final static Color3f brown = new Color3f(0.35f, 0.29f, 0.0f);
 
-  // incremental change in terms of RGB to go from green to brown
-  private float redShift = (brown.x - green.x)/((float) MAX_COLOUR_STEP);
-  private float greenShift = (brown.y - green.y)/((float) MAX_COLOUR_STEP);
-  private float blueShift = (brown.z - green.z)/((float) MAX_COLOUR_STEP);
+  // shared by all the limbs (and copied by FrozenTree)
+  static final int CYL_VERTS = CYL_SIDES*12;
+  static final float cylCoords[] = new float[CYL_VERTS*3];
+  static final float cylNorms[] = new float[CYL_VERTS*3];
+  static {  makeCylinderData();  }
+
+  private static Geometry cylGeom = null;
+  private static Appearance greenApp = null;
 
   private int orientAxis;              // limb's axis of initial orientation
   private double orientAngle = 0;      // angle to orientation axis
@@ -80,59 +104,51 @@ public class TreeLimb
   private float radius;                // original radius of the cylinder
   private float limbLen;               // original length of the cylinder
 
-  private TreeLimb parent;
+  private long id;                     // entity id for WorldRandom
 
+  private TransformGroup startLimbTG;   // the parent's endLimbTG
+  private BranchGroup startBG;
   private TransformGroup scaleTG;  
   private TransformGroup endLimbTG;
-  private Material limbMaterial;     // stores the colour 
+  private Shape3D limbShape;         // its Appearance gives the colour
 
-  private Transform3D currTrans, toMove;    // used for repeated calcs
+  // used for repeated calcs
+  private Transform3D scaleTrans, endTrans;
+  private double scaleMat[];
   private Vector3d endPos;
 
-  private Vector3d scaleLimb;   // for scaling the tree limb
-  private Color3f currColour;   // starts as green
-  private int colourStep = 0;
-  private int age = 0;
-
-  private int numChildren = 0;
-  private ArrayList limbChildren;    // stores child TreeLimb objects
-  private int level;           // this limb's level in the overall tree
-
   private boolean hasLeaves;
   private ImageCsSeries frontLeafShape, backLeafShape;   // screens for showing the leaves
+  private BranchGroup leafBG1, leafBG2;
 
 
 
   public TreeLimb(int axis, double angle, float rad, float len, 
-                           TransformGroup startLimbTG, TreeLimb par)
+                  TransformGroup startLimbTG, long limbId)
+  /* startLimbTG is the parent limb's endLimbTG, or the TransformGroup
+     that positions a tree's base limb */
   { 
+    id = limbId;
     orientAxis = axis;
     orientAngle = angle;
     radius = rad;
     limbLen = len;
-    parent = par;
-
-    scaleLimb = new Vector3d(1,1,1); 
-    currColour = new Color3f( green );
-
-    limbChildren = new ArrayList();
-
-    if (parent == null)
-      level = 1;
-    else
-      level = parent.getLevel() + 1;
 
     hasLeaves = false;
     frontLeafShape = null; backLeafShape = null;
 
-    currTrans = new Transform3D();
-    toMove = new Transform3D();
+    scaleTrans = new Transform3D();
+    endTrans = new Transform3D();
+    scaleMat = new double[16];
+    scaleMat[15] = 1.0;
     endPos = new Vector3d();
 
-    buildSubgraph(startLimbTG);
+    if (cylGeom == null) {    // the first limb
+      cylGeom = makeCylinder();
+      greenApp = makeAppearance(green);
+    }
 
-    if (parent != null)
-      parent.addChildLimb(this);     // tell the parent that there's a new child 
+    buildSubgraph(startLimbTG);
   }  // end of TreeLimb()
 
 
@@ -141,7 +157,9 @@ public class TreeLimb
   /* Create the scene graph detailed in the comments above.
      startLimbTG is the parent's endLimbTG. */
   { 
-    BranchGroup startBG = new BranchGroup();
+    this.startLimbTG = startLimbTG;
+    startBG = new BranchGroup();
+    startBG.setCapability( BranchGroup.ALLOW_DETACH);   // for replaceTree()
 
     // set the limb's orientation
     TransformGroup orientTG = new TransformGroup();
@@ -156,15 +174,19 @@ public class TreeLimb
       orientTG.setTransform(trans);
     }
 
-    // scaling node
+    // scaling node; the shared cylinder starts at the limb's size
     scaleTG = new TransformGroup();
     scaleTG.setCapability( TransformGroup.ALLOW_TRANSFORM_READ);
     scaleTG.setCapability( TransformGroup.ALLOW_TRANSFORM_WRITE);  // can alter
+    setCylScale(1.0, 1.0);
+
+    limbShape = new Shape3D(cylGeom, greenApp);
+    limbShape.setCapability( Shape3D.ALLOW_APPEARANCE_WRITE);   // for its colour
 
     // limb subgraph's sequence of TGs
     startBG.addChild(orientTG);
     orientTG.addChild(scaleTG);
-    scaleTG.addChild( makeLimb() );
+    scaleTG.addChild(limbShape);
 
     TransformGroup endLimbTG = locateEndLimb();
     orientTG.addChild(endLimbTG);
@@ -172,32 +194,80 @@ public class TreeLimb
     startBG.compile();
 
     startLimbTG.addChild(startBG);   // connect limb to parent's endLimbTG
+    if (Metrics.isOn()) {
+      Metrics.SHAPES.incrementAndGet();
+      Metrics.TRANSFORM_GROUPS.addAndGet(3);
+    }
   } // end of buildSubgraph()
 
 
-  private TransformGroup makeLimb()
-  // a green cylinder whose base is at (0,0,0)
+  private static void makeCylinderData()
+  /* The cylinder shared by all the limbs: radius 1, from y == 0 to y == 1,
+     with CYL_SIDES sides and both ends closed, as the coordinates and
+     normals of a list of triangles. */
   {
-    // fix limb's start position
-    TransformGroup baseTG = new TransformGroup();
-    Transform3D trans1 = new Transform3D();
-    trans1.setTranslation( new Vector3d(0, limbLen/2, 0) );   // move up length/2
-    baseTG.setTransform(trans1);
+    float xs[] = new float[CYL_SIDES+1];
+    float zs[] = new float[CYL_SIDES+1];
+    for (int i=0; i <= CYL_SIDES; i++) {
+      double angle = 2.0*Math.PI*i/CYL_SIDES;
+      xs[i] = (float) Math.sin(angle);
+      zs[i] = (float) Math.cos(angle);
+    }
 
-    Appearance app = new Appearance();
-    limbMaterial = new Material(black, black, green, brown, 50.f);  // specular, 100
-    limbMaterial.setCapability( Material.ALLOW_COMPONENT_READ);
-    limbMaterial.setCapability( Material.ALLOW_COMPONENT_WRITE);
-              // can change colours; only the diffuse colour will be altered
+    // each side is two triangles, and each end has a triangle per side
+    float coords[] = cylCoords;
+    float norms[] = cylNorms;
+    int v = 0;
+    for (int i=0; i < CYL_SIDES; i++) {
+      int j = i+1;
+      // side (anti-clockwise seen from outside), with outward normals
+      v = addVert(coords, norms, v, xs[i], 0, zs[i], xs[i], 0, zs[i]);
+      v = addVert(coords, norms, v, xs[j], 0, zs[j], xs[j], 0, zs[j]);
+      v = addVert(coords, norms, v, xs[j], 1, zs[j], xs[j], 0, zs[j]);
+      v = addVert(coords, norms, v, xs[i], 0, zs[i], xs[i], 0, zs[i]);
+      v = addVert(coords, norms, v, xs[j], 1, zs[j], xs[j], 0, zs[j]);
+      v = addVert(coords, norms, v, xs[i], 1, zs[i], xs[i], 0, zs[i]);
+      // top end, facing up
+      v = addVert(coords, norms, v, 0, 1, 0, 0, 1, 0);
+      v = addVert(coords, norms, v, xs[i], 1, zs[i], 0, 1, 0);
+      v = addVert(coords, norms, v, xs[j], 1, zs[j], 0, 1, 0);
+      // bottom end, facing down
+      v = addVert(coords, norms, v, 0, 0, 0, 0, -1, 0);
+      v = addVert(coords, norms, v, xs[j], 0, zs[j], 0, -1, 0);
+      v = addVert(coords, norms, v, xs[i], 0, zs[i], 0, -1, 0);
+    }
+  }  // end of makeCylinderData()
 
-    limbMaterial.setLightingEnable(true);
 
-    app.setMaterial( limbMaterial );
-    Cylinder cyl = new Cylinder( radius, limbLen, app);
+  private static int addVert(float coords[], float norms[], int v, 
+                             float x, float y, float z, float nx, float ny, float nz)
+  {
+    coords[3*v] = x;  coords[3*v+1] = y;  coords[3*v+2] = z;
+    norms[3*v] = nx;  norms[3*v+1] = ny;  norms[3*v+2] = nz;
+    return v+1;
+  }  // end of addVert()
+
+
+  private static Geometry makeCylinder()
+  {
+    TriangleArray cyl = new TriangleArray(CYL_VERTS,
+                          GeometryArray.COORDINATES | GeometryArray.NORMALS);
+    cyl.setCoordinates(0, cylCoords);
+    cyl.setNormals(0, cylNorms);
+    return cyl;
+  }  // end of makeCylinder()
 
-    baseTG.addChild( cyl );
-    return baseTG;
-  }  // end of makeLimb()
+
+  static Appearance makeAppearance(Color3f colour)
+  /* A limb Appearance with the given diffuse colour. The limbs
+     with the same colour share it. */
+  {
+    Appearance app = new Appearance();
+    Material limbMaterial = new Material(black, black, colour, brown, 50.f);  // specular, 100
+    limbMaterial.setLightingEnable(true);
+    app.setMaterial( limbMaterial );
+    return app;
+  }  // end of makeAppearance()
 
 
 
@@ -206,6 +276,7 @@ public class TreeLimb
     // fix limb's end position, and store in endLimbTG
     endLimbTG = new TransformGroup();
     endLimbTG.setCapability( TransformGroup.ALLOW_CHILDREN_EXTEND );
+    endLimbTG.setCapability( TransformGroup.ALLOW_CHILDREN_WRITE );   // for moveLeaves()
     endLimbTG.setCapability( TransformGroup.ALLOW_TRANSFORM_READ );
     endLimbTG.setCapability( TransformGroup.ALLOW_TRANSFORM_WRITE );
  
@@ -225,149 +296,83 @@ public class TreeLimb
   public TransformGroup getEndLimbTG()
   {  return endLimbTG;  }
 
-  public void incrAge()
-  { age++;  }
-
-  public int getAge()
-  {  return age;  }
-
-  public int getLevel()
-  {  return level;  }
+  public long getId()
+  {  return id;  }
 
-  
-  // ----------- scale get/set methods using length and radius ------------
-
-  public double getScaleLength()
-  {  return scaleLimb.y;  }
-
-  public double getScaleRadius()
-  {  return scaleLimb.x; }     // the scale values for x and z stay the same
-
-  public void scaleLength(double yChange)
-  { scaleLimb.y *= yChange;  
-    applyScale();
-  }
-
-  public void scaleRadius(double radChange)
-  { scaleLimb.x *= radChange;
-    scaleLimb.z *= radChange;
-    applyScale();
-  }
+  public float getRadius()
+  // the radius of the unscaled cylinder
+  {  return radius;  }
 
+  public float getLength()
+  // the length of the unscaled cylinder
+  {  return limbLen;  }
 
-  private void applyScale()
-  { 
-    moveEndLimbTG( scaleLimb.y);
 
-    scaleTG.getTransform(currTrans);
-    currTrans.setScale(scaleLimb);
-    scaleTG.setTransform(currTrans);
-  }  // applyScale()
 
+  public void setScale(double radScale, double lenScale)
+  /* Scale the cylinder by radScale in x and z (its radius) and lenScale
+     in y (its length). No changes are ever made to radius or limbLen,
+     only to the scaling stored in scaleTG.
 
-  private void moveEndLimbTG( double yScale)
-  /* Since endLimbTG is not attached to Cylinder, it will not automatically
-     be adjusted when the cylinder is scaled (e.g. lengthened, shortened). This
-     means that we must calculate the new position for endLimbTG ourselves.
+     Since endLimbTG is not attached to the cylinder, it will not automatically
+     be adjusted when the cylinder is scaled, so it is moved to just short
+     of the scaled length here.
 
-     yScale is the amount that the Cylinder is about to be scaled, which
-     must be applied to the y- value in endLimbTG
+     Both transforms are written directly, rather than read, modified
+     and written back, so nothing is allocated.
   */
   {
-    endLimbTG.getTransform( currTrans );
-    currTrans.get( endPos );         // current position of endLimbTG
-    double currLimbLen = endPos.y;    
-      // current y- position, the length of the cylinder including scaling
-
-    double changedLen = ((double) limbLen*(1.0-OVERLAP) * yScale) - currLimbLen;
-      // changedLen is the change in the y- value after scaling has been applied 
-
-    endPos.set(0, changedLen, 0);       // use endPos to store the length change
-    toMove.setTranslation( endPos );    // overwrite previous trans
-    currTrans.mul(toMove);              
-    endLimbTG.setTransform(currTrans);  // move endLimbTG
-  }  // end of moveEndLimbTG() 
-
-
-
-  // --------------- scaling using the radius and length values ----------
+    setCylScale(radScale, lenScale);
 
-  /* Any methods using the cylinder's current radius or length must first apply 
-     the current scaling values (stored in scaleLimb) to the cylinder's original
-     radius and limbLen values. 
+    endPos.y = limbLen*(1.0-OVERLAP) * lenScale;
+    endTrans.set(endPos);
+    endLimbTG.setTransform(endTrans);
+  }  // end of setScale()
 
-     No changes are every made to radius or limbLen, only to the scaling stored
-     in scaleTG.
-  */
-
-
-  public float getRadius()
-  {  return (radius * (float) scaleLimb.x);  }    // we could use scaleLimb.z instead
 
-  public void setRadius(float newRadius)
-  // change the cylinder's radius to newRadius (by changing the scaling)
+  private void setCylScale(double radScale, double lenScale)
+  // scale the shared unit cylinder to the limb's scaled radius and length
   {
-    double scaledRadius = ((double) radius) * scaleLimb.x;
-    double radChange = ((double) newRadius) / scaledRadius;
-    scaleRadius(radChange);
-  }  // end of setRadius()
-
-
-  public float getLength()
-  {  return (limbLen * (float) scaleLimb.y);  }
+    scaleMat[0] = radius*radScale;
+    scaleMat[5] = limbLen*lenScale;
+    scaleMat[10] = radius*radScale;
+    scaleTrans.set(scaleMat);
+    scaleTG.setTransform(scaleTrans);
+  }  // end of setCylScale()
 
 
-  public void setLength(float newLimbLen)
-  // change the cylinder's length to newLimbLen (by changing the scaling)
-  { double scaledLimbLen = ((double) limbLen) * scaleLimb.y;
-    double lenChange = ((double) newLimbLen) / scaledLimbLen;
-    scaleLength( lenChange );
-  }  // end of setLimbLen()
+  public void setAppearance(Appearance app)
+  /* Change the limb's colour, by switching to app, one of a
+     palette of shared limb Appearances. */
+  {  limbShape.setAppearance(app);  }
 
 
-  // -------------- colour get / set methods ---------------------
 
-  public Color3f getCurrColour()
-  {  return currColour;  }
+  // -------------------- freezing -------------------
 
 
-  public void setCurrColour(Color3f c)
-  // Change the limb's colour to c.
-  { currColour.x = c.x;
-    currColour.y = c.y;
-    currColour.z = c.z;
-    limbMaterial.setDiffuseColor( currColour );
-  }
-
-  public void stepToBrown()
-  // Incrementally change the limb's colour from green to brown
+  public void moveLeaves(Group newParent)
+  /* Move the leaf screens (if there are any) from endLimbTG to
+     newParent, which should not be live. */
   {
-    if (colourStep <= MAX_COLOUR_STEP) {
-      currColour.x += redShift;
-      currColour.y += greenShift;
-      currColour.z += blueShift;
-      limbMaterial.setDiffuseColor( currColour );
-      colourStep++;
+    if (hasLeaves) {
+      leafBG1.detach();
+      leafBG2.detach();
+      newParent.addChild(leafBG1);
+      newParent.addChild(leafBG2);
     }
-  }  // end of stepToBrown
-
-
-  
-  // -------------------- parent and children methods ---------------
+  }  // end of moveLeaves()
 
-  public TreeLimb getParent()
-  { return parent; }
 
-  public int getNumChildren()
-  {  return numChildren;  }
-
-  public void addChildLimb(TreeLimb child)
-  { limbChildren.add(child);
-    numChildren++;
-  }
+  public void replaceTree(BranchGroup frozenBG)
+  /* Replace this base limb, and so its whole tree, by frozenBG.
+     The TransformGroup that positions the tree must be able to
+     have its children extended and written. */
+  {
+    startLimbTG.addChild(frozenBG);
+    startBG.detach();
+  }  // end of replaceTree()
 
-  public ArrayList getLimbChildren()
-  { return limbChildren; }
 
 
   // -------------------- leaves related methods -------------------
@@ -385,15 +390,19 @@ public class TreeLimb
       backLeafShape = bls;
 
       // add the screens to endLimbTG, via BranchGroups
-      BranchGroup leafBG1 = new BranchGroup();
+      leafBG1 = new BranchGroup();
+      leafBG1.setCapability( BranchGroup.ALLOW_DETACH);   // for moveLeaves()
       leafBG1.addChild(frontLeafShape);
       endLimbTG.addChild(leafBG1);
 
-      BranchGroup leafBG2 = new BranchGroup();
+      leafBG2 = new BranchGroup();
+      leafBG2.setCapability( BranchGroup.ALLOW_DETACH);
       leafBG2.addChild(backLeafShape);
       endLimbTG.addChild(leafBG2);
 
       hasLeaves = true;
+      if (Metrics.isOn())
+        Metrics.SHAPES.addAndGet(2);
     }
   } // end of addLeaves()
 
@@ -0,0 +1,374 @@
+
+// TreePopulation.java
+// Andrew Davison, April 2005, ad@fivedots.coe.psu.ac.th
+
+/* A TreePopulation is a group of trees which share the same leaf
+   images. Its growth is driven by the GrowthScheduler, which calls
+   growLimbs() for a few limbs at a time, so that the work of a growth
+   tick is spread over several frames. (This was GrowthBehavior, when
+   each population woke up once a second and grew all its limbs at once.)
+
+   growLimbs() works in two phases:
+
+   - the compute phase applies a series of 'rules' to each limb's
+     LimbState entries. It only changes the entries of the limb it
+     is working on, and doesn't touch the scene graph; anything else
+     the rules want done (a new scale or colour, a child limb, leaves,
+     the next leaf image) is recorded as commands for that limb (see
+     LimbState). So the limbs are independent, and a large range
+     is split into bands which are computed in parallel by the
+     common ForkJoinPool (if there is more than one core). Spreading
+     the work over the cores means the scheduler can grow more limbs
+     in each frame's budget;
+
+   - the commit phase runs on the calling (behaviour) thread, and
+     carries out the commands in limb order: it adds the new limbs,
+     makes their TreeLimbs, and copies the changes to the scene graph.
+     Limbs without commands are not touched.
+
+   Doing the commands in limb order means that the trees grow exactly as
+   they did when each limb was grown in turn. In particular, the check
+   on the total number of limbs before spawning, and the check that
+   a limb has no children before it gets leaves, are left to the commit
+   phase, where the number of limbs added so far is known.
+
+   The rules are encoded as if-tests in applyRules(). Each if-test
+   states how a tree limb will change if the limb matches its 
+   conditions. The numbers in the tests come from the population's
+   GrowthRules, which are loaded from a file for each species; which
+   rules can apply to a limb at its level is looked up in the rules'
+   tables.
+
+   Once a limb has settled (no rule can change it again; see LimbState),
+   the rules skip it. When all of a tree's limbs have settled, the tree
+   is frozen: its scene graph is replaced by a FrozenTree, a single
+   merged shape, so a fully grown tree costs nothing to grow and
+   little to draw. If the population has an ImpostorRenderer, it is
+   asked for the tree's impostor, which is shown when it is far away.
+
+   The random choices in the rules come from WorldRandom, keyed by
+   the limb's id and its age, so a tree grows the same way every time
+   for a given world seed, however the ticks are split between frames.
+*/
+
+//CLASS ADDED BY TONY AND JANI TO MAKE TREES WORK
+
+import javax.media.j3d.*;
+import javax.vecmath.*;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+
+public class TreePopulation
+{
+  // axis constants
+  private final static int X_AXIS = 0;
+  private final static int Y_AXIS = 1;
+  private final static int Z_AXIS = 2;
+
+  /* Ranges of more than BAND_LIMBS limbs have their compute phase split
+     into bands of at most BAND_LIMBS, which are done in parallel. */
+  private final static int BAND_LIMBS = 64;
+
+  // with only one core, splitting into bands just adds overhead
+  private final static boolean USE_BANDS =
+                      (ForkJoinPool.getCommonPoolParallelism() > 1);
+
+  private final static int MAX_BRANCHES = GrowthRules.MAX_BRANCHES;
+
+
+  private LimbState st;                  // the state of all the limbs
+  private ImageComponent2D[] leafIms;    // a sequence of leaf images
+  private long growthSeed;               // for WorldRandom
+  private GrowthRules rules;
+  private Appearance limbApps[];   // for each colour in the rules' palette
+  private Appearance frozenApp;    // for FrozenTrees, coloured per vertex
+  private int numLeafSteps;        // times a leaf can show its next image
+  private int numFrozen = 0;       // trees frozen
+  private ImpostorRenderer impostors = null;   // makes the frozen trees' impostors
+
+
+
+  public TreePopulation(ImageComponent2D[] lfIms, long seed)
+  // a population grown with the default rules
+  {  this(lfIms, seed, new GrowthRules());  }
+
+
+  public TreePopulation(ImageComponent2D[] lfIms, long seed, GrowthRules rules)
+  { 
+    st = new LimbState();
+    leafIms = lfIms;
+    growthSeed = WorldRandom.stream(seed, "growth");
+    this.rules = rules;
+
+    limbApps = new Appearance[rules.palette.length];
+    for (int k=0; k < limbApps.length; k++)
+      limbApps[k] = TreeLimb.makeAppearance( rules.palette[k] );
+    frozenApp = TreeLimb.makeAppearance(TreeLimb.green);
+    numLeafSteps = leafIms.length-1;
+  }
+
+
+  public void addLimb(TreeLimb limb)
+  // add the base limb of a tree
+  {
+    int i = st.add(limb.getId(), -1, Z_AXIS, 0, limb.getRadius(), limb.getLength());
+    st.limbs[i] = limb;
+  }  // end of addLimb()
+
+
+  public int getNumLimbs()
+  {  return st.count;  }
+
+  public int getNumFrozen()
+  // the number of trees which have been frozen
+  {  return numFrozen;  }
+
+  public void setImpostors(ImpostorRenderer ir)
+  // ask ir for an impostor for each tree frozen from now on
+  {  impostors = ir;  }
+
+
+  public void growLimbs(int from, int to)
+  /* One growth tick for the limbs from index from up to (but not
+     including) to: compute the rules for each one, then commit
+     the changes. The commit may add new limbs to the end of the
+     arrays, which the caller should grow later in the same tick.
+  */
+  {
+    if (USE_BANDS && (to - from > BAND_LIMBS))
+      new RulesTask(from, to).invoke();
+    else
+      computeRules(from, to);
+    commitChanges(from, to);
+  }  // end of growLimbs()
+
+
+  void applyRulesToLimbs()
+  /* A whole growth tick in one go, including the limbs added during
+     the tick. (Package access, so it can be benchmarked.) */
+  {
+    int done = 0;
+    while (done < st.count) {
+      int end = st.count;
+      growLimbs(done, end);
+      done = end;
+    }
+  }  // end of applyRulesToLimbs()
+
+
+  private void computeRules(int from, int to)
+  {
+    for(int i=from; i < to; i++) {
+      if (st.settled[i])
+        continue;
+      applyRules(i);
+      st.age[i]++;   // a limb gets older after each iteration
+    }
+  }  // end of computeRules()
+
+
+  private class RulesTask extends RecursiveAction
+  // Computes a band of limbs, splitting itself in half until it is small enough.
+  {
+    private static final long serialVersionUID = 1L;
+    private int from, to;
+
+    public RulesTask(int from, int to)
+    { this.from = from;  this.to = to;  }
+
+    protected void compute()
+    {
+      if (to - from <= BAND_LIMBS)
+        computeRules(from, to);
+      else {
+        int mid = (from + to)/2;
+        invokeAll( new RulesTask(from, mid), new RulesTask(mid, to) );
+      }
+    }
+  }  // end of RulesTask class
+
+
+  private void applyRules(int i)
+  /* Apply rules to tree limb i. Only limb i's entries are changed,
+     so this can run at the same time as applyRules() for other limbs;
+     the rest is left to commands. */
+  {
+    GrowthRules r = rules;
+    int level = st.level[i];
+    int age = st.age[i];
+    int levelRules = r.getLevelRules(level);
+    int cmd = 0;
+
+    // get longer
+    if ((st.getLength(i) < r.maxLength) && !st.hasLeaves[i]) {
+      st.lengthScale[i] *= r.lengthRate;
+      cmd |= LimbState.SCALE;
+    }
+
+    // get thicker
+    if ((st.getRadius(i) <= r.getMaxRadius(level)) && !st.hasLeaves[i]) {
+      st.radiusScale[i] *= r.radiusRate;
+      cmd |= LimbState.SCALE;
+    }
+
+    // get more brown
+    if (st.colourStep[i] <= r.colourSteps) {
+      st.colourStep[i]++;
+      st.colour[i] = st.colourStep[i];
+      cmd |= LimbState.COLOUR;
+    }
+
+    // spawn some child limbs (if there aren't too many limbs by the commit)
+    if ((age == r.spawnAge) && ((levelRules & GrowthRules.CAN_SPAWN) != 0) &&
+        !st.hasLeaves[i]) {
+      for (int b=0; b < r.numBranches; b++) {
+        int j = i*MAX_BRANCHES + b;
+        st.spawnAxis[j] = (random(i, 3*b) < r.zAxisChance[b]) ? Z_AXIS : X_AXIS;
+        if (random(i, 3*b+1) < r.branchChance[b]) {
+          st.spawnAngle[j] = randomRange(i, 3*b+2, r.minAngle[b], r.maxAngle[b]);
+          cmd |= LimbState.SPAWN << b;
+        }
+      }
+    }
+
+    // start some leaves (if it still has no children at the commit)
+    if (((levelRules & GrowthRules.CAN_LEAF) != 0) && 
+        (random(i, r.leafDraw) < r.leafChance) && !st.hasLeaves[i])
+      cmd |= LimbState.LEAVES;
+
+    // grow the leaves (if it has any by the commit)
+    if ((st.hasLeaves[i] || ((cmd & LimbState.LEAVES) != 0)) &&
+        (age%r.leafInterval == 0))
+      cmd |= LimbState.NEXT_LEAF;
+
+    // turn the base limb into a 'blue bucket'
+    if ((age == r.bucketAge) && (level == 1)) {
+      st.radiusScale[i] *= r.bucketScale;
+      st.colour[i] = r.bucketColour;
+      cmd |= LimbState.SCALE | LimbState.COLOUR;
+    }
+
+    st.cmd[i] = (byte) cmd;
+  }  // end of applyRules()
+
+
+
+  private void commitChanges(int from, int to)
+  /* Carry out the commands for the limbs from up to to, in order,
+     then clear them. The new limbs go on the end of the arrays, after
+     their parents, so a parent's TreeLimb is always made before its
+     children's. Then see if each limb has settled, and freeze its
+     tree if that was the last of its limbs to settle. */
+  {
+    for (int i=from; i < to; i++) {
+      if (st.settled[i])
+        continue;
+      int cmd = st.cmd[i] & 0xff;
+      st.cmd[i] = 0;
+      if (cmd != 0)
+        doCommands(i, cmd);
+      if (isSettled(i, cmd) && st.settle(i))
+        freezeTree( st.root[i] );
+    }
+  }  // end of commitChanges()
+
+
+  private void doCommands(int i, int cmd)
+  // carry out limb i's commands
+  {
+    // spawning, as long as the population is small enough
+    if (((cmd & LimbState.SPAWNS) != 0) && (st.count <= rules.maxLimbs)) {
+      for (int b=0; b < MAX_BRANCHES; b++)
+        if ((cmd & (LimbState.SPAWN << b)) != 0)
+          makeChild(st.spawnAxis[i*MAX_BRANCHES + b],
+                    st.spawnAngle[i*MAX_BRANCHES + b], 0.05f, 0.5f, i);
+    }
+
+    TreeLimb limb = st.limbs[i];
+    if ((cmd & LimbState.SCALE) != 0)
+      limb.setScale(st.radiusScale[i], st.lengthScale[i]);
+    if ((cmd & LimbState.COLOUR) != 0)
+      limb.setAppearance( limbApps[ st.colour[i] ] );
+    if (((cmd & LimbState.LEAVES) != 0) && (st.numChildren[i] == 0)) {
+      st.hasLeaves[i] = true;
+      makeLeaves(limb);
+    }
+    if (((cmd & LimbState.NEXT_LEAF) != 0) && st.hasLeaves[i]) {
+      limb.showNextLeaf();
+      if (st.leafStep[i] < numLeafSteps)
+        st.leafStep[i]++;
+    }
+  }  // end of doCommands()
+
+
+  private boolean isSettled(int i, int cmd)
+  /* Can limb i still change? Not if this tick made no change to
+     it (the scaling and colour rules stop for good once they stop),
+     it is past the ages for spawning and the bucket, and its leaves
+     are fully grown, or it can never have any. */
+  {
+    GrowthRules r = rules;
+    if ((cmd & (LimbState.SCALE | LimbState.COLOUR | LimbState.SPAWNS)) != 0)
+      return false;
+    if ((st.age[i] <= r.spawnAge) || ((st.level[i] == 1) && (st.age[i] <= r.bucketAge)))
+      return false;
+    if (st.hasLeaves[i])
+      return (st.leafStep[i] >= numLeafSteps);
+    return ((r.getLevelRules(st.level[i]) & GrowthRules.CAN_LEAF) == 0) ||
+           (st.numChildren[i] > 0);
+  }  // end of isSettled()
+
+
+  private void freezeTree(int root)
+  /* Replace the scene graph of the tree with base limb root by a
+     FrozenTree. The TreeLimbs are no longer needed. */
+  {
+    FrozenTree frozen = new FrozenTree(st, root, rules.palette, frozenApp, leafIms);
+    st.limbs[root].replaceTree(frozen);
+    if (impostors != null)
+      impostors.request(frozen);
+    for (int i=root; i < st.count; i++)
+      if (st.root[i] == root)
+        st.limbs[i] = null;
+    numFrozen++;
+  }  // end of freezeTree()
+
+
+
+  private void makeChild(int axis, double angle, float rad, float len, int par)
+  { 
+    long childId = WorldRandom.hash(st.id[par], st.numChildren[par], 0);
+    int child = st.add(childId, par, axis, angle, rad, len);
+    TransformGroup startLimbTG = st.limbs[par].getEndLimbTG();
+    st.limbs[child] = new TreeLimb(axis, angle, rad, len, startLimbTG, childId);
+  } // end of makeChild()
+
+
+
+  private void makeLeaves(TreeLimb limb)
+  /* Leaves are represented by _two_ ImageCsSeries screens. One will rotate
+     about a point in front of the leaves, the other about a point behind the
+     leaves, which creates a convincing 'mass' of leaves. */
+  {
+    ImageCsSeries frontLeafShape = new ImageCsSeries(0.5f, 2.0f, leafIms);
+    ImageCsSeries backLeafShape = new ImageCsSeries(-0.5f, 2.0f, leafIms);
+
+    limb.addLeaves(frontLeafShape, backLeafShape);
+  }  // end of makeLeaves()
+
+
+  private double random(int i, int draw)
+  /* return limb i's random number for this draw at its current age;
+     each draw is given a different WorldRandom step, which is
+     age*numDraws + draw */
+  {  return WorldRandom.nextDouble(growthSeed, st.id[i], 
+                                   ((long) st.age[i])*rules.numDraws + draw);  }
+
+
+  private double randomRange(int i, int draw, double min, double max)
+  // return a random number in the range min-max
+  {  return (random(i, draw)*(max - min)) + min;  }
+
+}  // end of TreePopulation class
@@ -0,0 +1,69 @@
+// VegetationLoader.java
+
+/* VegetationLoader adds trees to the live scene a batch at a time,
+   so that in progressive mode the first frame doesn't wait for them
+   (see WrapFractalLand3D).
+
+   The trees are planted by a background thread, which passes each
+   batch (a BranchGroup of trees, and the TreePopulation growing
+   them, if any) to add(). This Behavior wakes up every frame, and
+   attaches at most one waiting batch to vegBG, and gives its
+   population to the GrowthScheduler; so the live scene, and the
+   scheduler's list of populations, are only changed on the
+   behaviour thread.
+
+   Once finish() has been called and the last batch is attached,
+   the loader stops waking up.
+*/
+
+import java.util.Enumeration;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import javax.media.j3d.*;
+
+
+public class VegetationLoader extends Behavior
+{
+  private WakeupCondition everyFrame;
+  private BranchGroup vegBG;
+  private GrowthScheduler scheduler;
+  private ConcurrentLinkedQueue batches;   // of Object[] {BranchGroup, TreePopulation}
+  private volatile boolean isFinished = false;   // no more batches will be added
+
+
+  public VegetationLoader(BranchGroup vegBG, GrowthScheduler scheduler)
+  // vegBG must allow its children to be extended
+  {
+    this.vegBG = vegBG;
+    this.scheduler = scheduler;
+    everyFrame = new WakeupOnElapsedFrames(0);
+    batches = new ConcurrentLinkedQueue();
+  }  // end of VegetationLoader()
+
+
+  public void add(BranchGroup treesBG, TreePopulation pop)
+  // queue a batch of trees; pop may be null, for trees that don't grow
+  {  batches.add( new Object[] {treesBG, pop} );  }
+
+
+  public void finish()
+  // there are no more batches to come
+  {  isFinished = true;  }
+
+
+  public void initialize()
+  {  wakeupOn( everyFrame );  }
+
+
+  public void processStimulus( Enumeration criteria )
+  { // ignore criteria
+    Object[] batch = (Object[]) batches.poll();
+    if (batch != null) {
+      vegBG.addChild( (BranchGroup) batch[0] );
+      if (batch[1] != null)
+        scheduler.addPopulation( (TreePopulation) batch[1] );
+    }
+    if (!isFinished || !batches.isEmpty())
+      wakeupOn( everyFrame );
+  } // end of processStimulus()
+
+}  // end of VegetationLoader class
@@ -0,0 +1,59 @@
+// WorldRandom.java
+
+/* WorldRandom supplies all the random numbers used to build the world
+   (mesh heights, tree positions, limb angles, leaf starts).
+
+   There is no generator object holding a 'next' value. Instead every
+   number is a SplitMix64 hash of three longs:
+        (seed, entity id, step)
+   where the seed is the world seed (or a stream seed derived from it
+   by stream()), the entity id names the thing that wants the number
+   (a mesh point, a tree, a limb), and the step says which of its
+   numbers it is (e.g. a limb's age combined with a draw number).
+
+   The same triple always gives the same number, so a world can be
+   rebuilt exactly from its seed, and threads can draw numbers in any
+   order without sharing (or locking) any state.
+*/
+
+public class WorldRandom
+{
+  private static final long GOLDEN = 0x9E3779B97F4A7C15L;   // 2^64 / phi
+
+
+  public static long stream(long seed, String name)
+  /* Derive a seed for a named stream of numbers (e.g. "mesh", "trees")
+     so that different parts of the world do not reuse the same
+     (id, step) pairs. */
+  {  return hash(seed, name.hashCode(), -1);  }
+
+
+  public static long hash(long seed, long id, long step)
+  // 64 random bits for (seed, id, step)
+  {  return mix( mix(seed + (id+1)*GOLDEN) + (step+1)*GOLDEN );  }
+
+
+  public static double nextDouble(long seed, long id, long step)
+  // a double in the range [0, 1)
+  {  return (hash(seed, id, step) >>> 11) * 0x1.0p-53;  }  // use the top 53 bits
+
+
+  public static double range(long seed, long id, long step, double min, double max)
+  // a double in the range [min, max)
+  {  return (nextDouble(seed, id, step) * (max - min)) + min;  }
+
+
+  public static int nextInt(long seed, long id, long step, int bound)
+  // an int in the range [0, bound)
+  {  return (int) (nextDouble(seed, id, step) * bound);  }
+
+
+  private static long mix(long z)
+  // the SplitMix64 finalizer
+  {
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }  // end of mix()
+
+}  // end of WorldRandom class
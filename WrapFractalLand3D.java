@@ -6,9 +6,14 @@
    of textured squares. Squares at different heights are
    textured in different ways.
 
-   The landscape is surrounded by blue walls, and is poorly lit to
-   suggest evening; the sky is a dark blue. LinearFog obscures
-   the distance.
+   The landscape has no edges: it is built in chunks around the
+   user as they move (see Landscape and TerrainStreamer). It is
+   poorly lit to suggest evening; the sky is a dark blue. LinearFog
+   obscures the distance.
+
+   The light, the sky, and the user's behaviours are bounded by viewBounds,
+   a BoundingLeaf that travels with the viewpoint, so they still work
+   however far the user walks from the origin.
 
    The user can 'walk' over the landscape using the
    similar left/right/front/back/turn/up/down moves
@@ -18,14 +23,13 @@
 
 import javax.swing.*;
 import java.awt.*;
+import java.util.HashMap;
+import java.util.concurrent.*;
 
 import com.sun.j3d.utils.universe.*;
 import com.sun.j3d.utils.geometry.*;
 import javax.media.j3d.*;
 import javax.vecmath.*;
-import com.sun.j3d.utils.image.TextureLoader;
-
-import java.util.Random;
 
 
 
@@ -40,6 +44,18 @@ public class WrapFractalLand3D extends JPanel
   private Color3f skyColour = new Color3f(0.17f, 0.07f, 0.45f);
      // used for the Background and LinearFog nodes
 
+  private static final int GROWTH_BUDGET = 2000;
+     // microsecs per frame that the GrowthScheduler may spend growing trees
+
+  private static final double IMPOSTOR_DIST = 20.0;
+     // fully grown trees further away than this are drawn as impostors
+  private static final int IMPOSTOR_SIZE = 128;   // pixels across an impostor's picture
+
+  private static final int NUM_BUILDERS = 3;   // threads for the independent stages
+
+  private static final String SPECIES[] = { "default", "cactus", "sakura", "redflower", "bush" };
+     // each has a rules file, rules/<species>.txt
+
   private final static int X_AXIS = 0;
   private final static int Y_AXIS = 1;
   private final static int Z_AXIS = 2;
@@ -47,46 +63,223 @@ public class WrapFractalLand3D extends JPanel
   private SimpleUniverse su;
   private BranchGroup sceneBG;
   private BoundingSphere bounds;   // for environment nodes
+  private BoundingLeaf viewBounds; // moves with the viewpoint
+
+  private Landscape land;   // creates the floor
+  private GrowthScheduler scheduler;   // grows the trees
+  private ImpostorRenderer impostors;  // draws the pictures of distant trees
+  private boolean isOffScreen;         // the canvas's owner moves the scene on
+  private HashMap growthRules;         // species name --> GrowthRules
+  private StartupTimeline timeline;    // times the stages of building the scene
+  private boolean progressive;         // show the first frame before everything is built
+  private VegetationLoader vegLoader = null;   // adds the trees in progressive mode
+  private KeyBehavior keyBeh;          // moves the viewpoint
+
+  private long seed;        // the world seed
+  private long placeSeed;   // WorldRandom stream for tree positions
+  private int numTrees = 0; // the id of the next tree to be placed
+
 
-  private Landscape land;   // creates the floor and walls
+  public WrapFractalLand3D(double flatness, long seed)
+  {  this(flatness, seed, false);  }
 
 
-  public WrapFractalLand3D(double flatness)
+  public WrapFractalLand3D(double flatness, long seed, boolean progressive)
+  {  this(flatness, seed, progressive, null);  }
+
+
+  public WrapFractalLand3D(double flatness, long seed, boolean progressive,
+                           Canvas3D offScreen)
+  /* In progressive mode, the first frame is shown with a coarse
+     landscape and no trees. The full landscape is built, and the trees
+     planted, in the background, and they are added as they are ready.
+
+     The scene is drawn on a canvas in the panel, unless an offscreen
+     canvas is given (see HeadlessRenderer), which is drawn on when
+     its owner asks. Then the owner moves the scene on between frames,
+     so the frames don't depend on the clock: the GrowthScheduler is
+     paused, and there is no TerrainStreamer. */
   {
+    this.seed = seed;
+    isOffScreen = (offScreen != null);
+    this.progressive = progressive;
+    placeSeed = WorldRandom.stream(seed, "trees");
+
+    timeline = new StartupTimeline();
+    long start = System.nanoTime();
     setLayout( new BorderLayout() );
     setOpaque( false );
     setPreferredSize( new Dimension(PWIDTH, PHEIGHT));
 
-    GraphicsConfiguration config =
+    Canvas3D canvas3D = offScreen;
+    if (canvas3D == null) {
+      GraphicsConfiguration config =
 					SimpleUniverse.getPreferredConfiguration();
-    Canvas3D canvas3D = new Canvas3D(config);
-    add("Center", canvas3D);
-    canvas3D.setFocusable(true);   
-    canvas3D.requestFocus();
+      canvas3D = new Canvas3D(config);
+      add("Center", canvas3D);
+      canvas3D.setFocusable(true);   
+      canvas3D.requestFocus();
+    }
     su = new SimpleUniverse(canvas3D);
+    addViewBounds();
+    timeline.done("universe", start);
 
     createSceneGraph(flatness);
     createUserControls();
 
+    start = System.nanoTime();
+    sceneBG.compile();   // fix the scene
     su.addBranchGraph( sceneBG );
+    timeline.done("compile and attach", start);
+    timeline.print();
   } // end of WrapFractalLand3D()
 
 
-  void createSceneGraph(double flatness) 
-  // initilise the scene
+  private void addGauges()
+  // metrics read from the scheduler and the texture cache
+  {
+    Metrics.gauge("growth.lagMillis", new Metrics.Gauge() {
+      public long getValue()  {  return scheduler.getLagMillis();  }
+    });
+    Metrics.gauge("growth.pendingLimbs", new Metrics.Gauge() {
+      public long getValue()  {  return scheduler.getPendingLimbs();  }
+    });
+    Metrics.gauge("trees.frozen", new Metrics.Gauge() {
+      public long getValue()  {  return scheduler.getNumFrozen();  }
+    });
+    Metrics.gauge("textures.cacheHits", new Metrics.Gauge() {
+      public long getValue()  {  return TextureCache.getHits();  }
+    });
+    Metrics.gauge("textures.cacheMisses", new Metrics.Gauge() {
+      public long getValue()  {  return TextureCache.getMisses();  }
+    });
+  }  // end of addGauges()
+
+
+  public Landscape getLand()
+  {  return land;  }
+
+  public TransformGroup getViewerTG()
+  // the TransformGroup which moves the viewpoint
+  {  return su.getViewingPlatform().getViewPlatformTransform();  }
+
+  public GrowthScheduler getScheduler()
+  {  return scheduler;  }
+
+  public ImpostorRenderer getImpostors()
+  {  return impostors;  }
+
+
+  private void addViewBounds()
+  /* Hang a BoundingLeaf off the viewpoint, so its bounds are always
+     centered on the user. */
+  {
+    viewBounds = new BoundingLeaf(
+                   new BoundingSphere(new Point3d(0,0,0), BOUNDSIZE) );
+    PlatformGeometry pg = new PlatformGeometry();
+    pg.addChild(viewBounds);
+    su.getViewingPlatform().setPlatformGeometry(pg);
+  }  // end of addViewBounds()
+
+
+  void createSceneGraph(final double flatness) 
+  /* Initialise the scene. The stages which don't depend on each other
+     (the landscape, decoding the tree images, and reading the growth
+     rules) run in parallel on a pool of scene builder threads, while
+     this thread makes the lights and sky. Only this thread adds
+     to sceneBG; the trees are planted once the landscape and their
+     images are ready, in a fixed order, so the world is the same for
+     a given seed.
+
+     In progressive mode, the trees are planted by a scene builder,
+     and added by a VegetationLoader after the first frame. */
   { 
     sceneBG = new BranchGroup();
     bounds = new BoundingSphere(new Point3d(0,0,0), BOUNDSIZE);
 
+    ExecutorService builders = Executors.newFixedThreadPool(NUM_BUILDERS,
+                                         new DaemonThreads("scene builder"));
+
+    // create the landscape: the floor, built in chunks
+    Future landF = timeline.submit(builders, "landscape", new Callable() {
+      public Object call()
+      {  return new Landscape(flatness, seed, progressive);  }
+    });
+
+    // decode all the tree images at once; the populations get them from the cache
+    final Future imagesF = timeline.submit(builders, "tree images", new Callable() {
+      public Object call()
+      { TextureCache.preloadImages( new String[] {
+          "images/leaf0.gif", "images/leaf1.gif", "images/leaf2.gif",
+          "images/leaf3.gif", "images/leaf4.gif", "images/leaf5.gif",
+          "images/cactus.gif", "images/sakura.gif", "images/tonyandbeifang.gif",
+          "images/redflower.gif", "images/otherLeaf.gif", "images/bush.gif" });
+        return null;
+      }
+    });
+
+    final Future rulesF = timeline.submit(builders, "growth rules", new Callable() {
+      public Object call()
+      {  return loadRules();  }
+    });
+
+    long start = System.nanoTime();
     lightScene();     // add the lights
     addBackground();  // add the sky
 //    addFog();         // add the fog; comment this line out to switch off fog
-    
+    timeline.done("lights and sky", start);
 
-    // create the landscape: the floor and walls
-    land = new Landscape(flatness);
+    land = (Landscape) StartupTimeline.get(landF);
     sceneBG.addChild( land.getLandBG() );   
 
+    // one behaviour grows all the trees, a little in each frame
+    scheduler = new GrowthScheduler(GROWTH_BUDGET);
+    impostors = new ImpostorRenderer(IMPOSTOR_SIZE, IMPOSTOR_DIST);
+    impostors.setSchedulingBoundingLeaf(viewBounds);
+    sceneBG.addChild(impostors);
+    scheduler.setImpostors(impostors);
+    scheduler.setSchedulingBoundingLeaf(viewBounds);
+    scheduler.setPaused(isOffScreen);
+    sceneBG.addChild(scheduler);
+    if (Metrics.isOn())
+      addGauges();
+
+    if (progressive) {
+      BranchGroup vegBG = new BranchGroup();
+      vegBG.setCapability(Group.ALLOW_CHILDREN_EXTEND);
+      sceneBG.addChild(vegBG);
+      vegLoader = new VegetationLoader(vegBG, scheduler);
+      vegLoader.setSchedulingBoundingLeaf(viewBounds);
+      sceneBG.addChild(vegLoader);
+
+      final Future treesF = timeline.submit(builders, "trees", new Callable() {
+        public Object call()
+        { plantAllTrees(imagesF, rulesF);
+          vegLoader.finish();
+          return null;
+        }
+      });
+      builders.execute( new Runnable() {
+        public void run()
+        { StartupTimeline.get(treesF);   // print the timeline again, with the trees
+          timeline.print();
+        }
+      });
+    }
+    else {
+      start = System.nanoTime();
+      plantAllTrees(imagesF, rulesF);
+      timeline.done("trees", start);
+    }
+    builders.shutdown();
+  } // end of createScene()
+
+
+  private void plantAllTrees(Future imagesF, Future rulesF)
+  // make the tree populations, once their images and rules are ready
+  {
+    StartupTimeline.get(imagesF);
+    growthRules = (HashMap) StartupTimeline.get(rulesF);
     growTrees();
     otherTree();
     redFlower();
@@ -94,9 +287,22 @@ public class WrapFractalLand3D extends JPanel
     trees();
     growBush();
     tonyAndBeifang();
+    System.out.println( TextureCache.getStats() );
+  }  // end of plantAllTrees()
 
-    sceneBG.compile();   // fix the scene
-  } // end of createScene()
+
+  private HashMap loadRules()
+  // the GrowthRules for each species, keyed by its name
+  {
+    HashMap rules = new HashMap();
+    for (int i=0; i < SPECIES.length; i++)
+      rules.put(SPECIES[i], GrowthRules.load("rules/" + SPECIES[i] + ".txt"));
+    return rules;
+  }  // end of loadRules()
+
+
+  private GrowthRules getRules(String species)
+  {  return (GrowthRules) growthRules.get(species);  }
 
 
   private void lightScene()
@@ -106,7 +312,7 @@ public class WrapFractalLand3D extends JPanel
     Vector3f lightDir = new Vector3f(1.0f, -1.0f, -0.8f); // upper left
     DirectionalLight light1 = 
             new DirectionalLight(white, lightDir);
-    light1.setInfluencingBounds(bounds);
+    light1.setInfluencingBoundingLeaf(viewBounds);
     sceneBG.addChild(light1);
   }  // end of lightScene()
 
@@ -114,7 +320,7 @@ public class WrapFractalLand3D extends JPanel
   private void addBackground()
   // An early evening sky
   { Background back = new Background();
-    back.setApplicationBounds( bounds );
+    back.setApplicationBoundingLeaf( viewBounds );
     back.setColor( skyColour );   // darkish blue
     sceneBG.addChild( back );
   }  // end of addBackground()
@@ -123,7 +329,7 @@ public class WrapFractalLand3D extends JPanel
   private void addFog()
   // linear fog
   { LinearFog fogLinear = new LinearFog( skyColour, 15.0f, 30.0f);
-    fogLinear.setInfluencingBounds( bounds );  // same as background
+    fogLinear.setInfluencingBoundingLeaf( viewBounds );  // same as background
     sceneBG.addChild( fogLinear );
   }  // end of addFog()
 
@@ -134,23 +340,47 @@ public class WrapFractalLand3D extends JPanel
   private void createUserControls()
   /* Adjust the clip distances and set up the KeyBehaviour.
      The behaviour initialises the viewpoint at the origin on
-     the XZ plane.
+     the XZ plane. The TerrainStreamer follows the same viewpoint.
   */
   {
     // original clips are 10 and 0.1; keep ratio between 100-1000
     View view = su.getViewer().getView();
-    view.setBackClipDistance(20);      // can see a long way
-    view.setFrontClipDistance(0.05);   // can see close things
+    view.setBackClipDistance(100);     // can see a long way (distant chunks are simplified)
+    view.setFrontClipDistance(0.1);    // can see close things
 
     ViewingPlatform vp = su.getViewingPlatform();
     TransformGroup steerTG = vp.getViewPlatformTransform();
 
     // set up keyboard controls (and position viewpoint)
-    KeyBehavior keybeh = new KeyBehavior(land, steerTG);
-    keybeh.setSchedulingBounds(bounds);
-    vp.setViewPlatformBehavior(keybeh);
+    keyBeh = new KeyBehavior(land, steerTG);
+    keyBeh.setSchedulingBoundingLeaf(viewBounds);
+    vp.setViewPlatformBehavior(keyBeh);
+
+    // keep the terrain around the viewpoint built
+    if (!isOffScreen) {
+      TerrainStreamer streamer = new TerrainStreamer(land, steerTG);
+      streamer.setSchedulingBoundingLeaf(viewBounds);
+      sceneBG.addChild(streamer);
+    }
   } // end of createUserControls()
 
+
+  public void recordKeys(KeyRecorder rec)
+  // save the user's key presses
+  {  keyBeh.setRecorder(rec);  }
+
+
+  public void replayKeys(KeyReplay replay)
+  /* Press the recorded keys in the KeyBehavior. The scene is
+     compiled, so the replay is added in a branch of its own. */
+  {
+    replay.setKeyBehavior(keyBeh);
+    replay.setSchedulingBoundingLeaf(viewBounds);
+    BranchGroup replayBG = new BranchGroup();
+    replayBG.addChild(replay);
+    su.addBranchGraph(replayBG);
+  }  // end of replayKeys()
+
   // ---------------------- grow trees -----------------
   //Created by Tony and Jani
 
@@ -183,218 +413,148 @@ public class WrapFractalLand3D extends JPanel
      * TreeLimb(Y_AXIS, -30, 0.05f, 0.5f, tg4, null);
      */
 
-    for (int i = 0; i < 50; i++) {
-      createTree();
-    }
+    plantTrees(50, null);    // these trees don't grow
 
     // load the leaf images used by all the trees
     ImageComponent2D[] leafIms = loadImages("images/leaf", 6);
 
-    // the behaviour that manages the growing of the trees
-    GrowthBehavior grower = new GrowthBehavior(leafIms);
-    grower.setSchedulingBounds(bounds);
+    // the trees that grow
+    TreePopulation pop = new TreePopulation(leafIms, seed,
+                                 getRules("default"));
 
-    // add the trees to GrowthBehavior
-    for (int i = 0; i < 30; i++) {
-      grower.addLimb(createTree());
-    }
-    sceneBG.addChild(grower);
+    plantTrees(30, pop);
   } // end of growTrees()
   
   private void trees(){
       
-      ImageComponent2D[] im = loadTrees("images/cactus");
-      GrowthBehavior grower = new GrowthBehavior(im);
-    grower.setSchedulingBounds(bounds);
+      ImageComponent2D[] im = loadImages(new String[] {"images/cactus.gif"});
+      TreePopulation pop = new TreePopulation(im, seed,
+                                 getRules("cactus"));
 
-    // add the trees to GrowthBehavior
-    for (int i = 0; i < 10; i++) {
-      grower.addLimb(createCactus());
-    }
-    sceneBG.addChild(grower);
+    plantTrees(10, pop);
       
       
   }
   
   private void sakura() {
 
-    ImageComponent2D[] im = loadTrees("images/sakura");
-    GrowthBehavior grower = new GrowthBehavior(im);
-    grower.setSchedulingBounds(bounds);
+    ImageComponent2D[] im = loadImages(new String[] {"images/sakura.gif"});
+    TreePopulation pop = new TreePopulation(im, seed,
+                                 getRules("sakura"));
 
-    // add the trees to GrowthBehavior
-    for (int i = 0; i < 40; i++) {
-      grower.addLimb(createTree());
-    }
-    sceneBG.addChild(grower);
+    plantTrees(40, pop);
 
   }
 
   private void tonyAndBeifang() {
 
-    ImageComponent2D[] im = loadTrees("images/tonyandbeifang");
-    GrowthBehavior grower = new GrowthBehavior(im);
-    grower.setSchedulingBounds(bounds);
+    ImageComponent2D[] im = loadImages(new String[] {"images/tonyandbeifang.gif"});
+    TreePopulation pop = new TreePopulation(im, seed);
 
-    // add the trees to GrowthBehavior
-    for (int i = 0; i < 1; i++) {
-      grower.addLimb(createProf());
-    }
-    sceneBG.addChild(grower);
+    plantTrees(1, pop);
 
   }
   
   private void redFlower() {
 
-    ImageComponent2D[] im = loadTrees("images/redflower");
-    GrowthBehavior grower = new GrowthBehavior(im);
-    grower.setSchedulingBounds(bounds);
+    ImageComponent2D[] im = loadImages(new String[] {"images/redflower.gif"});
+    TreePopulation pop = new TreePopulation(im, seed,
+                                 getRules("redflower"));
 
-    // add the trees to GrowthBehavior
-    for (int i = 0; i < 35; i++) {
-      grower.addLimb(createTree());
-    }
-    sceneBG.addChild(grower);
+    plantTrees(35, pop);
 
   }
 
   private void otherTree() {
 
-    ImageComponent2D[] im = loadTrees("images/otherLeaf");
-    GrowthBehavior grower = new GrowthBehavior(im);
-    grower.setSchedulingBounds(bounds);
+    ImageComponent2D[] im = loadImages(new String[] {"images/otherLeaf.gif"});
+    TreePopulation pop = new TreePopulation(im, seed,
+                                 getRules("default"));
 
-    // add the trees to GrowthBehavior
-    for (int i = 0; i < 35; i++) {
-      grower.addLimb(createTree());
-    }
-    sceneBG.addChild(grower);
+    plantTrees(35, pop);
 
   }
 
   private void growBush() {
 
-    ImageComponent2D[] im = loadTrees("images/bush");
-    GrowthBehavior grower = new GrowthBehavior(im);
-    grower.setSchedulingBounds(bounds);
+    ImageComponent2D[] im = loadImages(new String[] {"images/bush.gif"});
+    TreePopulation pop = new TreePopulation(im, seed,
+                                 getRules("bush"));
 
-    // add the trees to GrowthBehavior
-    for (int i = 0; i < 30; i++) {
-      grower.addLimb(createBush());
-    }
-    sceneBG.addChild(grower);
+    plantTrees(30, pop);
 
   }
 
 
   
-  private TreeLimb createTree() {
-    Transform3D t3d = new Transform3D();
-    Random rand = new Random();
-    int r = rand.nextInt(30+30)-30;
-    int r1 = rand.nextInt(30+30)-30;
-    t3d.set(new Vector3f(r, 2f, r1));
-    TransformGroup tg0 = new TransformGroup(t3d);
-    sceneBG.addChild(tg0);
-    TreeLimb t0 = new TreeLimb(Z_AXIS, 0, 0.05f, 0.5f, tg0, null);
-    return t0;
-  }
+  private void plantTrees(int num, TreePopulation pop)
+  /* Place the base limbs of num new trees at random (x,z) positions
+     on the ground, and add them to pop (if there is one). The trees
+     are added to the scene as one batch.
+     A position is a WorldRandom number keyed by the tree's id, which
+     is also the id of its base limb. All the ground heights are found
+     with a single Landscape.getLandHeights() call. */
+  {
+    long firstId = numTrees;
+    float xs[] = new float[num];
+    float zs[] = new float[num];
+    for (int i = 0; i < num; i++) {
+      long treeId = numTrees++;
+      xs[i] = WorldRandom.nextInt(placeSeed, treeId, X_AXIS, 30+30)-30;
+      zs[i] = WorldRandom.nextInt(placeSeed, treeId, Z_AXIS, 30+30)-30;
+    }
+    float ys[] = new float[num];
+    land.getLandHeights(xs, zs, ys);
 
-  private TreeLimb createCactus() {
+    BranchGroup treesBG = new BranchGroup();
     Transform3D t3d = new Transform3D();
-    Random rand = new Random();
-    int r = rand.nextInt(30 + 30) - 30;
-    int r1 = rand.nextInt(30 + 30) - 30;
-    t3d.set(new Vector3f(r, -2f, r1));
-    TransformGroup tg0 = new TransformGroup(t3d);
-    sceneBG.addChild(tg0);
-    TreeLimb t0 = new TreeLimb(Z_AXIS, 0, 0.05f, 0.5f, tg0, null);
-    return t0;
-  }
+    for (int i = 0; i < num; i++) {
+      t3d.set(new Vector3f(xs[i], ys[i], zs[i]));
+      TransformGroup tg0 = new TransformGroup(t3d);
+      tg0.setCapability(Group.ALLOW_CHILDREN_EXTEND);   // so the tree can be frozen
+      tg0.setCapability(Group.ALLOW_CHILDREN_WRITE);
+      treesBG.addChild(tg0);
+      if (Metrics.isOn())
+        Metrics.TRANSFORM_GROUPS.incrementAndGet();
+      TreeLimb t0 = new TreeLimb(Z_AXIS, 0, 0.05f, 0.5f, tg0, firstId+i);
+      if (pop != null)
+        pop.addLimb(t0);
+    }
+    addTrees(treesBG, pop);
+  }  // end of plantTrees()
 
-  private TreeLimb createBush() {
-    Transform3D t3d = new Transform3D();
-    Random rand = new Random();
-    int r = rand.nextInt(30 + 30) - 30;
-    int r1 = rand.nextInt(30 + 30) - 30;
-    t3d.set(new Vector3f(r, -2f, r1));
-    TransformGroup tg0 = new TransformGroup(t3d);
-    sceneBG.addChild(tg0);
-    TreeLimb t0 = new TreeLimb(Z_AXIS, 0, 0.05f, 0.5f, tg0, null);
-    return t0;
-  }
 
-  private TreeLimb createProf() {
-    Transform3D t3d = new Transform3D();
-    Random rand = new Random();
-    int r = rand.nextInt(30 + 30) - 30;
-    int r1 = rand.nextInt(30 + 30) - 30;
-    t3d.set(new Vector3f(r, -2f, r1));
-    TransformGroup tg0 = new TransformGroup(t3d);
-    sceneBG.addChild(tg0);
-    TreeLimb t0 = new TreeLimb(Z_AXIS, 0, 0.05f, 0.5f, tg0, null);
-    return t0;
-  }
+  private void addTrees(BranchGroup treesBG, TreePopulation pop)
+  /* Add a batch of trees to the scene, and their population (if
+     there is one) to the scheduler: straight away, or in progressive
+     mode, by passing them to the VegetationLoader. */
+  {
+    if (vegLoader != null)
+      vegLoader.add(treesBG, pop);
+    else {
+      sceneBG.addChild(treesBG);
+      if (pop != null)
+        scheduler.addPopulation(pop);
+    }
+  }  // end of addTrees()
   
-  private ImageComponent2D[] loadTrees(String fNm){
-      String filename;
-      TextureLoader loader;
-      ImageComponent2D[] im = new ImageComponent2D[1];
-      filename = new String(fNm+".gif");
-      loader = new TextureLoader(filename,null);
-      im[0]=loader.getImage();
-      if (im[0] == null){
-        System.out.println("Load failed for texture in : " + filename);}
-      im[0].setCapability(ImageComponent2D.ALLOW_SIZE_READ);
-      return im;
-  }
-
   private ImageComponent2D[] loadImages(String fNms, int numIms)
-  /*
-   * Load the leaf images: they all start with fNms, and there are numIms of them.
-   */
+  // the images fNms0.gif, fNms1.gif, ..., from the TextureCache
   {
-    String filename;
-    TextureLoader loader;
-    ImageComponent2D[] ims = new ImageComponent2D[numIms];
-    System.out.println("Loading " + numIms + " textures from " + fNms);
-    for (int i = 0; i < numIms; i++) {
-      filename = new String(fNms + i + ".gif");
-      loader = new TextureLoader(filename, null);
-      ims[i] = loader.getImage();
-      if (ims[i] == null)
-        System.out.println("Load failed for texture in : " + filename);
-      ims[i].setCapability(ImageComponent2D.ALLOW_SIZE_READ);
-    }
-    return ims;
+    String fnms[] = new String[numIms];
+    for (int i = 0; i < numIms; i++)
+      fnms[i] = fNms + i + ".gif";
+    return loadImages(fnms);
   } // end of loadImages()
 
 
-
-private ImageComponent2D[] forButterfly(String fNms, int numIms)
-  /*
-   * Load the leaf images: they all start with fNms, and there are numIms of them.
-   */
+  private ImageComponent2D[] loadImages(String fnms[])
   {
-    String filename;
-    TextureLoader loader;
-    ImageComponent2D[] ims = new ImageComponent2D[numIms];
-    System.out.println("Loading " + numIms + " textures from " + fNms);
-    for (int i = 0; i < numIms-1; i++) {
-      filename = new String(fNms + i + ".gif");
-      loader = new TextureLoader(filename, null);
-      ims[i] = loader.getImage();
-      if (ims[i] == null)
-        System.out.println("Load failed for texture in : " + filename);
-      ims[i].setCapability(ImageComponent2D.ALLOW_SIZE_READ);
-    }
-    filename = new String("butterfly.gif");
-    loader = new TextureLoader(filename, null);
-    ims[numIms-1] = loader.getImage();
-    if (ims[numIms-1] == null)
-      System.out.println("Load failed for texture in : " + filename);
-    ims[numIms-1].setCapability(ImageComponent2D.ALLOW_SIZE_READ);
+    ImageComponent2D[] ims = new ImageComponent2D[fnms.length];
+    for (int i = 0; i < fnms.length; i++)
+      ims[i] = TextureCache.getImage(fnms[i]);
     return ims;
-  }
+  } // end of loadImages()
+
 }
 // end of WrapFractalLand3D class
\ No newline at end of file
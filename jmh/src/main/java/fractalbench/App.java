@@ -0,0 +1,127 @@
+// App.java
+
+/* The application's classes are in the default package, which code
+   in a named package can't refer to by name, and JMH will only
+   generate benchmarks for classes in a named package.
+
+   App bridges the gap: it looks up the application's constructors
+   and methods once, as MethodHandles whose reference types have been
+   erased to Object. A benchmark calls them with invokeExact() through
+   these static final fields, which the JIT inlines, so the bridge adds
+   (almost) nothing to the timings.
+
+   quiet() switches off System.out, since the application prints a
+   line for every mesh and TexturedPlanes it makes.
+*/
+
+package fractalbench;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+
+import javax.media.j3d.Appearance;
+import javax.media.j3d.ImageComponent2D;
+import javax.media.j3d.TransformGroup;
+
+
+final class App
+{
+  static final long SEED = 1L;
+  static final double FLATNESS = 2.0;
+
+  private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+  // FractalMesh
+  static final MethodHandle NEW_MESH = constructor("FractalMesh",
+                     double.class, int.class, long.class, boolean.class);
+  static final MethodHandle NEW_TILE = constructor("FractalMesh",
+                     double.class, int.class, long.class, int.class, int.class);
+
+  // Landscape
+  static final MethodHandle NEW_LANDSCAPE = constructor("Landscape",
+                     double.class, long.class);
+  static final MethodHandle BUCKET_CELLS = method("Landscape", "bucketCells",
+                     appClass("FractalMesh"), int.class);
+  static final MethodHandle GET_LAND_HEIGHT = method("Landscape", "getLandHeight",
+                     double.class, double.class, double.class);
+  static final MethodHandle GET_LAND_HEIGHTS = method("Landscape", "getLandHeights",
+                     float[].class, float[].class, float[].class);
+
+  // TerrainVertices and TexturedPlanes
+  static final MethodHandle NEW_TERRAIN_VERTICES = constructor("TerrainVertices",
+                     appClass("FractalMesh"));
+  static final MethodHandle NEW_TEXTURED_PLANES = constructor("TexturedPlanes",
+                     appClass("TerrainVertices"), int[].class, int.class, Appearance.class);
+  static final MethodHandle CREATE_GEOMETRY = method("TexturedPlanes", "createGeometry",
+                     appClass("TerrainVertices"), int[].class, int.class);
+  static final MethodHandle MAKE_APPEARANCE = method("TexturedPlanes", "makeAppearance",
+                     String.class);
+
+  // TreePopulation and TreeLimb
+  static final MethodHandle NEW_GROWTH = constructor("TreePopulation",
+                     ImageComponent2D[].class, long.class);
+  static final MethodHandle ADD_LIMB = method("TreePopulation", "addLimb",
+                     appClass("TreeLimb"));
+  static final MethodHandle NUM_LIMBS = method("TreePopulation", "getNumLimbs");
+  static final MethodHandle APPLY_RULES = method("TreePopulation", "applyRulesToLimbs");
+  static final MethodHandle NEW_LIMB = constructor("TreeLimb",
+                     int.class, double.class, float.class, float.class,
+                     TransformGroup.class, long.class);
+
+
+  private App() {}
+
+
+  static void quiet()
+  // discard the application's progress messages
+  {
+    System.setOut( new PrintStream( new OutputStream() {
+      public void write(int b) {}
+    }));
+  }  // end of quiet()
+
+
+  private static Class<?> appClass(String name)
+  {
+    try {
+      return Class.forName(name);
+    }
+    catch (ClassNotFoundException e) {
+      throw new IllegalStateException("Application class not found: " + name, e);
+    }
+  }  // end of appClass()
+
+
+  private static MethodHandle constructor(String clsName, Class<?>... params)
+  {
+    try {
+      Constructor<?> c = appClass(clsName).getDeclaredConstructor(params);
+      c.setAccessible(true);
+      MethodHandle mh = LOOKUP.unreflectConstructor(c);
+      return mh.asType( mh.type().erase() );
+    }
+    catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("No such constructor in " + clsName, e);
+    }
+  }  // end of constructor()
+
+
+  private static MethodHandle method(String clsName, String name, Class<?>... params)
+  // the method may have package access
+  {
+    try {
+      Method m = appClass(clsName).getDeclaredMethod(name, params);
+      m.setAccessible(true);
+      MethodHandle mh = LOOKUP.unreflect(m);
+      return mh.asType( mh.type().erase() );
+    }
+    catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("No such method " + clsName + "." + name, e);
+    }
+  }  // end of method()
+
+}  // end of App class
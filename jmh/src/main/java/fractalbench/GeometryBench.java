@@ -0,0 +1,56 @@
+// GeometryBench.java
+
+/* Time to make a tile's floor geometry: its TerrainVertices (heights
+   and normals), and the indexed triangle strips of
+   TexturedPlanes.createGeometry() at one level of detail. All the
+   tile's blocks are used, as if they shared one texture. */
+
+package fractalbench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class GeometryBench
+{
+  @Param({"16", "32", "64"})
+  public int tileLen;
+
+  @Param({"1", "4"})
+  public int step;         // the level of detail's block size
+
+  private Object tile;     // a FractalMesh
+  private int[] cells;     // all of its blocks
+  private Object planes;
+
+
+  @Setup
+  public void setup() throws Throwable
+  {
+    App.quiet();
+    tile = (Object) App.NEW_TILE.invokeExact(App.FLATNESS, tileLen, App.SEED, 0, 0);
+    cells = new int[(tileLen/step)*(tileLen/step)];
+    for (int i=0; i < cells.length; i++)
+      cells[i] = i;
+    Object verts = (Object) App.NEW_TERRAIN_VERTICES.invokeExact(tile);
+    Object app = (Object) App.MAKE_APPEARANCE.invokeExact((Object) "images/grass.gif");
+    planes = (Object) App.NEW_TEXTURED_PLANES.invokeExact(verts, (Object) cells, step, app);
+  }  // end of setup()
+
+
+  @Benchmark
+  public Object createGeometry() throws Throwable
+  {
+    Object verts = (Object) App.NEW_TERRAIN_VERTICES.invokeExact(tile);
+    App.CREATE_GEOMETRY.invokeExact(planes, verts, (Object) cells, step);
+    return planes;
+  }
+
+}  // end of GeometryBench class
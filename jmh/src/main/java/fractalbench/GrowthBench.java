@@ -0,0 +1,84 @@
+// GrowthBench.java
+
+/* Time for one TreePopulation growth tick (one call of applyRulesToLimbs())
+   once its trees have grown to at least MIN_LIMBS limbs. The trees are
+   not attached to a universe, so no Canvas3D is needed, but Java 3D's
+   TransformGroup still loads the native libraries (see jmh/build.gradle). */
+
+package fractalbench;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.media.j3d.ImageComponent2D;
+import javax.media.j3d.Transform3D;
+import javax.media.j3d.TransformGroup;
+import javax.vecmath.Vector3f;
+
+import com.sun.j3d.utils.image.TextureLoader;
+
+import org.openjdk.jmh.annotations.*;
+
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class GrowthBench
+{
+  private static final int NUM_TREES = 8;
+  private static final int MIN_LIMBS = 256;
+  private static final int MAX_GROW_TICKS = 200;
+  private static final int Z_AXIS = 2;
+
+  private Object grower;
+
+
+  @Setup
+  public void setup() throws Throwable
+  {
+    App.quiet();
+    grower = (Object) App.NEW_GROWTH.invokeExact((Object) loadLeaves(), App.SEED);
+
+    Transform3D t3d = new Transform3D();
+    for (int i = 0; i < NUM_TREES; i++) {
+      t3d.set( new Vector3f(i*2, 0, 0));
+      TransformGroup tg = new TransformGroup(t3d);
+      Object limb = (Object) App.NEW_LIMB.invokeExact(Z_AXIS, 0.0, 0.05f, 0.5f,
+                                               (Object) tg, (long) i);
+      App.ADD_LIMB.invokeExact(grower, limb);
+    }
+
+    // grow the trees until there are enough limbs
+    int ticks = 0;
+    while (((int) App.NUM_LIMBS.invokeExact(grower) < MIN_LIMBS) && 
+           (ticks < MAX_GROW_TICKS)) {
+      App.APPLY_RULES.invokeExact(grower);
+      ticks++;
+    }
+    int numLimbs = (int) App.NUM_LIMBS.invokeExact(grower);
+    if (numLimbs < MIN_LIMBS)
+      throw new IllegalStateException("Trees only grew " + numLimbs + " limbs");
+  }  // end of setup()
+
+
+  private ImageComponent2D[] loadLeaves()
+  {
+    ImageComponent2D[] ims = new ImageComponent2D[6];
+    for (int i = 0; i < ims.length; i++) {
+      ims[i] = new TextureLoader("images/leaf" + i + ".gif", null).getImage();
+      ims[i].setCapability(ImageComponent2D.ALLOW_SIZE_READ);
+    }
+    return ims;
+  }  // end of loadLeaves()
+
+
+  @Benchmark
+  public Object tick() throws Throwable
+  {
+    App.APPLY_RULES.invokeExact(grower);
+    return grower;
+  }
+
+}  // end of GrowthBench class
@@ -0,0 +1,69 @@
+// LandHeightBench.java
+
+/* Time for floor height queries: one at a time with
+   Landscape.getLandHeight() (as KeyBehavior does), and as a batch
+   with getLandHeights(). Each operation is one query.
+
+   The points are random, within the chunks built around the origin.
+   Picking needs a live scene graph (and so the Java 3D natives), so
+   the old picking version is timed by HeightBench instead. */
+
+package fractalbench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class LandHeightBench
+{
+  private static final int NUM_QUERIES = 1024;
+  private static final float MIN_COORD = -32;   // the chunks around the origin
+  private static final float MAX_COORD = 64;
+
+  private Object land;
+  private float xs[] = new float[NUM_QUERIES];
+  private float zs[] = new float[NUM_QUERIES];
+  private float heights[] = new float[NUM_QUERIES];
+
+
+  @Setup
+  public void setup() throws Throwable
+  {
+    App.quiet();
+    land = (Object) App.NEW_LANDSCAPE.invokeExact(App.FLATNESS, App.SEED);
+    java.util.Random rnd = new java.util.Random(App.SEED);
+    for (int i = 0; i < NUM_QUERIES; i++) {
+      xs[i] = MIN_COORD + rnd.nextFloat()*(MAX_COORD - MIN_COORD);
+      zs[i] = MIN_COORD + rnd.nextFloat()*(MAX_COORD - MIN_COORD);
+    }
+  }  // end of setup()
+
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_QUERIES)
+  public double getLandHeight() throws Throwable
+  {
+    double sum = 0;
+    for (int i = 0; i < NUM_QUERIES; i++)
+      sum += (double) App.GET_LAND_HEIGHT.invokeExact(land, (double) xs[i],
+                                                      (double) zs[i], 0.0);
+    return sum;
+  }  // end of getLandHeight()
+
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_QUERIES)
+  public float[] getLandHeights() throws Throwable
+  {
+    App.GET_LAND_HEIGHTS.invokeExact(land, (Object) xs, (Object) zs, (Object) heights);
+    return heights;
+  }  // end of getLandHeights()
+
+}  // end of LandHeightBench class
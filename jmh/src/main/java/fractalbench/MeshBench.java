@@ -0,0 +1,37 @@
+// MeshBench.java
+
+/* Time to generate a FractalMesh, serially and with the fork/join
+   passes, at several grid sizes. */
+
+package fractalbench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx2g"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class MeshBench
+{
+  @Param({"64", "256", "1024", "4096"})
+  public int worldLen;
+
+  @Param({"false", "true"})
+  public boolean parallel;
+
+
+  @Setup
+  public void setup()
+  {  App.quiet();  }
+
+
+  @Benchmark
+  public Object generate() throws Throwable
+  {  return (Object) App.NEW_MESH.invokeExact(App.FLATNESS, worldLen, App.SEED, parallel);  }
+
+}  // end of MeshBench class
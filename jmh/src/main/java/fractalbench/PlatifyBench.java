@@ -0,0 +1,42 @@
+// PlatifyBench.java
+
+/* Time for Landscape to bucket a chunk's cells by height, which is
+   the first half of platifyFloor(). The TexturedPlanes are made
+   by the second half; see GeometryBench. */
+
+package fractalbench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class PlatifyBench
+{
+  @Param({"32", "256"})
+  public int tileLen;
+
+  private Object land;
+  private Object tile;     // a FractalMesh
+
+
+  @Setup
+  public void setup() throws Throwable
+  {
+    App.quiet();
+    land = (Object) App.NEW_LANDSCAPE.invokeExact(App.FLATNESS, App.SEED);
+    tile = (Object) App.NEW_TILE.invokeExact(App.FLATNESS, tileLen, App.SEED, 0, 0);
+  }  // end of setup()
+
+
+  @Benchmark
+  public Object bucketCells() throws Throwable
+  {  return (Object) App.BUCKET_CELLS.invokeExact(land, tile, 1);  }
+
+}  // end of PlatifyBench class